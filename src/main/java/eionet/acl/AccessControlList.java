@@ -26,10 +26,8 @@ package eionet.acl;
 
 import java.security.Principal;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
@@ -40,7 +38,9 @@ import java.util.Vector;
 import org.apache.log4j.Logger;
 
 import eionet.acl.impl.AclEntryImpl;
+import eionet.acl.impl.AclImpl;
 import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PermissionBits;
 import eionet.acl.impl.PrincipalImpl;
 
 
@@ -71,9 +71,12 @@ class AccessControlList implements AccessControlListIF {
     String description;
 
     /** Groups are retrieved from the AccessController. */
-    private HashMap groups;
-    private HashMap<String, Principal> users;
-    private HashMap permissions;
+    private final HashMap groups;
+    /** Principals of the snapshot. */
+    private final HashMap<String, Principal> users;
+    private final HashMap permissions;
+    /** Memberships of the snapshot, shared by all its ACLs. */
+    private final MembershipIndex membership;
 
     private static final Logger LOGGER = Logger.getLogger(AccessControlList.class);
 
@@ -85,6 +88,13 @@ class AccessControlList implements AccessControlListIF {
     Acl acl;
     Principal owner;
 
+    /** Entries and owners found by processAclRows(), added to the ACL together after each pass. */
+    private List<AclEntry> newEntries;
+    private List<Principal> newOwners;
+
+    /** Compiled effective permissions, see compile(). */
+    private volatile AclDecisionTable decisions;
+
     private Persistence storageManager;
 
     /**
@@ -111,10 +121,12 @@ class AccessControlList implements AccessControlListIF {
      */
     AccessControlList(Persistence storage) {
         storageManager = storage;
-        groups = AccessController.groups;
-        users = AccessController.users;
+        AclSnapshot model = AccessController.getLoadingSnapshot();
+        groups = model.getGroups();
+        users = model.getUsers();
 
-        permissions = AccessController.permissions;
+        permissions = model.getPermissions();
+        membership = model.getMembership();
 
         //the same for all ACLs
         ownerPrm = AccessController.ownerPrm;
@@ -128,6 +140,36 @@ class AccessControlList implements AccessControlListIF {
 
     }
 
+    /**
+     * Creates a copy of an ACL for another snapshot. The entries and the decision
+     * table are shared with the original, the groups, principals, permissions and
+     * memberships are those of the given snapshot. The snapshot must hold the same
+     * local group and permission objects the ACL was built with. The original is
+     * left as it is for the readers of the snapshot it belongs to.
+     *
+     * @param other the ACL to copy
+     * @param model the snapshot the copy belongs to
+     */
+    AccessControlList(AccessControlList other, AclSnapshot model) {
+        storageManager = other.storageManager;
+        mechanismType = other.mechanismType;
+        groups = model.getGroups();
+        users = model.getUsers();
+        permissions = model.getPermissions();
+        membership = model.getMembership();
+
+        ownerPrm = other.ownerPrm;
+        authUserName = other.authUserName;
+        anonymousUserName = other.anonymousUserName;
+
+        name = other.name;
+        description = other.description;
+        docAndDdcEntries = other.docAndDdcEntries;
+        acl = other.acl;
+        owner = other.owner;
+        decisions = other.decisions;
+    }
+
     /**
      * Returns ACL entry rows.
      *
@@ -211,61 +253,29 @@ class AccessControlList implements AccessControlListIF {
      */
     @Override
     public Vector getPermissions(String user) throws SignOnException {
-        Collection<String> prms = new HashSet<String>();
-        Principal p;
-        Enumeration ePerms;
+        AclDecisionTable table = getDecisions();
+        long mask;
 
-        if (user.trim().equals(""))
+        if (user != null && user.trim().equals(""))
             user = null;
 
-        if (user != null) {
-            p = (Principal) users.get(user);
-
+        if (user == null) {
+            //user is not authenticated, check if the "anonymous" entry has permissions
+            mask = table.getMask(anonymousUserName);
+        } else if (users.containsKey(user) || isLazyRoleMember(user)) {
             //user exists in the ACL entry rows, get her permissions
-            if (p != null) {
-                ePerms = acl.getPermissions(p);
-
-                while (ePerms.hasMoreElements()) {
-                    Permission prm = (Permission) ePerms.nextElement();
-                    prms.add(prm.toString());
-
-                }
-                //return prms;
-                Vector<String> v = new Vector<String>(prms);
-                return v;
-            }
-
+            mask = getUserMask(table, user);
+        } else {
             //user is not described but is authenticated, use "authenticated" entry rows
-            p = (Principal) users.get(authUserName);
-            if (p != null) {
-                ePerms = acl.getPermissions(p);
-
-                while (ePerms.hasMoreElements()) {
-                    Permission prm = (Permission) ePerms.nextElement();
-                    prms.add(prm.toString());
-
-                }
-            }
-            Vector<String> v = new Vector<String>(prms);
-            return v;
-            //return prms;
+            mask = table.getMask(authUserName);
         }
 
-        //user is not authenticated, check if the "anonymous" entry has permissions
-        p = (Principal) users.get(anonymousUserName);
-        if (p != null) {
-            ePerms = acl.getPermissions(p);
-
-            while (ePerms.hasMoreElements()) {
-                Permission prm = (Permission) ePerms.nextElement();
-                prms.add(prm.toString());
-
-            }
+        Vector<String> v = new Vector<String>();
+        Enumeration<Permission> ePerms = PermissionBits.permissions(mask);
+        while (ePerms.hasMoreElements()) {
+            v.add(ePerms.nextElement().toString());
         }
-
-        Vector<String> v = new Vector<String>(prms);
         return v;
-
     }
 
     /**
@@ -282,25 +292,76 @@ class AccessControlList implements AccessControlListIF {
         if (permissionObject == null) {
             throw new SignOnException("Unknown permission: " + permission);
         }
+        return (getEffectiveMask(userName) & PermissionBits.maskOf(permissionObject)) != 0;
+    }
+
+    /**
+     * Returns all permissions checkPermission() grants the user, as a PermissionBits mask.
+     * @param userName username, null or empty if the user is not authenticated
+     * @return permission mask
+     */
+    long getEffectiveMask(String userName) {
+        AclDecisionTable table = getDecisions();
 
         // anonymous user
         if (userName == null || userName.trim().length() == 0) {
-            Principal anonymousPrincipal = (Principal) users.get(anonymousUserName);
-            return anonymousPrincipal != null && acl.checkPermission(anonymousPrincipal, permissionObject);
+            return table.getMask(anonymousUserName);
         } else {
-            // authenticated user, first try its own name
-            Principal principal = (Principal) users.get(userName);
-            if (principal != null) {
-                if (acl.checkPermission(principal, permissionObject)) {
-                    return true;
-                }
+            // authenticated user: its own permissions and those of any authenticated user
+            return getUserMask(table, userName) | table.getMask(authUserName);
+        }
+    }
+
+    /**
+     * Returns the permissions of the user in the ACL, taking the roles of the
+     * user into account when roles are resolved lazily.
+     */
+    private long getUserMask(AclDecisionTable table, String userName) {
+        if (!AccessController.isLazyRoles() || !table.hasRoleEntries()) {
+            return table.getMask(userName);
+        }
+        return table.getMask(userName, AccessController.getUserRoles(userName));
+    }
+
+    /**
+     * Returns true if roles are resolved lazily and the user is in a role that
+     * some ACL of the snapshot has an entry for. Such users would be known
+     * principals if the role members had been read in advance.
+     */
+    private boolean isLazyRoleMember(String userName) {
+        if (!AccessController.isLazyRoles()) {
+            return false;
+        }
+        for (String role : AccessController.getUserRoles(userName)) {
+            if (membership.hasRole(role)) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the decision table used by checkPermission() and getPermissions().
+     * Called by AccessController once the ACL has been read.
+     */
+    void compile() {
+        decisions = new AclDecisionTable(acl, membership);
+    }
 
-            // no permission by this user's own name, but since it is still an authenticated user,
-            // see if authenticated user has this permission
-            Principal authenticatedPrincipal = (Principal) users.get(authUserName);
-            return authenticatedPrincipal != null && acl.checkPermission(authenticatedPrincipal, permissionObject);
+    /**
+     * Returns true if the decision table has been compiled.
+     */
+    boolean isCompiled() {
+        return decisions != null;
+    }
+
+    private AclDecisionTable getDecisions() {
+        AclDecisionTable table = decisions;
+        if (table == null) {
+            table = new AclDecisionTable(acl, membership);
+            decisions = table;
         }
+        return table;
     }
 
     /**
@@ -313,18 +374,73 @@ class AccessControlList implements AccessControlListIF {
         // Process rows twice.
         // First process group rows because we have to know the group membership already when processing users.
 
-        // 1st processing
-        for (Iterator i = aRows.iterator(); i.hasNext();) {
-            String aRow = (String) i.next();
-            processRights(aRow, false); // false here means we process groups+roles
+        newEntries = new ArrayList<AclEntry>();
+        newOwners = new ArrayList<Principal>();
+        try {
+            // 1st processing
+            for (Iterator i = aRows.iterator(); i.hasNext();) {
+                String aRow = (String) i.next();
+                processRights(aRow, false); // false here means we process groups+roles
+            }
+            addNewEntries();
+
+            // 2nd processing
+            for (Iterator i = aRows.iterator(); i.hasNext();) {
+                String aRow = (String) i.next();
+                processRights(aRow, true); // true here means we process groups+roles
+            }
+            addNewEntries();
+        } finally {
+            newEntries = null;
+            newOwners = null;
+        }
+
+    }
+
+    /**
+     * Adds an entry to the ACL, or keeps it for addNewEntries() while the rows are processed.
+     */
+    private void addEntry(AclEntry entry) throws NotOwnerException {
+        if (newEntries != null) {
+            newEntries.add(entry);
+        } else {
+            acl.addEntry(owner, entry);
         }
+    }
 
-        // 2nd processing
-        for (Iterator i = aRows.iterator(); i.hasNext();) {
-            String aRow = (String) i.next();
-            processRights(aRow, true); // true here means we process groups+roles
+    /**
+     * Adds an owner to the ACL, or keeps it for addNewEntries() while the rows are processed.
+     */
+    private void addOwner(Principal principal) throws NotOwnerException {
+        if (newOwners != null) {
+            newOwners.add(principal);
+        } else {
+            acl.addOwner(owner, principal);
         }
+    }
 
+    /**
+     * Adds the entries and owners found so far to the ACL at once, so the tables
+     * of the ACL are built once per pass rather than once per entry.
+     */
+    private void addNewEntries() throws SignOnException {
+        try {
+            if (acl instanceof AclImpl) {
+                ((AclImpl) acl).addOwners(owner, newOwners);
+                ((AclImpl) acl).addEntries(owner, newEntries);
+            } else {
+                for (Principal p : newOwners) {
+                    acl.addOwner(owner, p);
+                }
+                for (AclEntry entry : newEntries) {
+                    acl.addEntry(owner, entry);
+                }
+            }
+        } catch (NotOwnerException noe) {
+            throw new SignOnException("Not owner " + noe.toString());
+        }
+        newEntries.clear();
+        newOwners.clear();
     }
 
     /**
@@ -382,7 +498,7 @@ class AccessControlList implements AccessControlListIF {
      */
     public void addRoleRights(String roleName, String permissionsArray, AclEntryType aclType)  throws SignOnException  {
 
-        Group circaRole = new RoleImpl(roleName);
+        Group circaRole = membership.getRole(roleName);
 
         AclEntry aclGrp = new AclEntryImpl(circaRole);
 
@@ -403,7 +519,7 @@ class AccessControlList implements AccessControlListIF {
         } else {
             try {
                 //l("Add AclEntry " + aclGrp.getPrincipal().getName());
-                acl.addEntry(owner, aclGrp);
+                addEntry(aclGrp);
             } catch (NotOwnerException noe) {
                 throw new SignOnException("Not owner " + noe.toString());
             }
@@ -431,7 +547,7 @@ class AccessControlList implements AccessControlListIF {
             docAndDdcEntries.add(aclEntryToHash(aclGrp, permissionsArray, aclType));
         } else {
             try {
-                acl.addEntry(owner, aclGrp);
+                addEntry(aclGrp);
             } catch (NotOwnerException noe) {
                 throw new SignOnException("Not owner " + noe.toString());
             }
@@ -458,7 +574,7 @@ class AccessControlList implements AccessControlListIF {
             //Pricncipal is an owner
             if (s.equals(ownerPrm)) {
                 try {
-                    acl.addOwner(owner, aclE.getPrincipal());
+                    addOwner(aclE.getPrincipal());
                 } catch (NotOwnerException noe) {
                     throw new SignOnException("CAnnot be owner: " + noe.toString());
                 }
@@ -513,14 +629,14 @@ class AccessControlList implements AccessControlListIF {
         } else {
             try {
                 if (uNegativeEntry != null)
-                    acl.addEntry(owner, uNegativeEntry);
+                    addEntry(uNegativeEntry);
 
 
                 //if the user is an owner she has to have the owner permission
                 if (user.equals(owner) && !aclUsr.checkPermission(oPrm))
                     aclUsr.addPermission(oPrm);
 
-                acl.addEntry(owner, aclUsr);
+                addEntry(aclUsr);
 
 
             } catch (NotOwnerException noe) {
@@ -562,6 +678,29 @@ class AccessControlList implements AccessControlListIF {
     public void setAcl(Map<String, String> aclAttrs, List aclEntries) throws SignOnException {
         LOGGER.debug("setAcl()");
         storageManager.writeAcl(name, aclAttrs, aclEntries);
+        AccessController.reloadAcl(name, storageManager);
+    }
+
+    /**
+     * Adds the users that have entries in this ACL to the principals of a snapshot,
+     * as reading the ACL would have done.
+     *
+     * @param principals principals of the snapshot this ACL is moved to
+     */
+    void addPrincipalsTo(HashMap<String, Principal> principals) {
+        Enumeration<AclEntry> entries = acl.entries();
+        while (entries.hasMoreElements()) {
+            Principal p = entries.nextElement().getPrincipal();
+            if (!(p instanceof Group) && !principals.containsKey(p.getName())) {
+                principals.put(p.getName(), p);
+            }
+        }
+        for (HashMap<String, String> entry : docAndDdcEntries) {
+            String name = entry.get("PRINCIPAL");
+            if ("U".equals(entry.get("TYPE")) && !principals.containsKey(name)) {
+                principals.put(name, new PrincipalImpl(name));
+            }
+        }
     }
 
     @Override
@@ -612,9 +751,9 @@ class AccessControlList implements AccessControlListIF {
      */
     private HashMap<Group, String> isMemberOf(Principal user) {
         HashMap<Group, String> grpNames = new HashMap<Group, String>();
-        for (Iterator i = groups.keySet().iterator(); i.hasNext();) {
-            Group g = (Group) groups.get(i.next());
-            if (g.isMember(user))
+        for (Group g : membership.groupsOf(user.getName())) {
+            // local groups only, not roles
+            if (groups.get(g.getName()) == g)
                 grpNames.put(g, g.getName());
         }
 
@@ -23,13 +23,29 @@
  */
 package eionet.acl;
 
+import java.io.File;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Vector;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import eionet.acl.impl.PermissionBits;
 import eionet.acl.impl.PermissionImpl;
 import java.lang.reflect.Constructor;
 import java.util.logging.Level;
@@ -47,9 +63,71 @@ public final class AccessController {
     private static AclProperties aclProperties;
 
     /**
-     * ACLs.
+     * The published ACL model. Replaced as a whole on reload, never modified in place.
+     */
+    private static volatile AclSnapshot snapshot;
+
+    /**
+     * The model being built by the current reload. Only set while RELOAD_LOCK is held.
+     */
+    private static volatile AclSnapshot loading;
+
+    /**
+     * Serialises reloads. Readers never take this lock once a snapshot is published.
+     */
+    private static final ReentrantLock RELOAD_LOCK = new ReentrantLock();
+
+    /**
+     * Set when a reload failed or was asked for, until the background reloader
+     * has published a new snapshot.
+     */
+    private static volatile boolean reloadPending = false;
+
+    /**
+     * Number of reloads asked for by requestReload(), so that a request made
+     * while a reload is running isn't lost.
+     */
+    private static final AtomicLong RELOAD_REQUESTS = new AtomicLong();
+
+    /**
+     * Runs pending reloads, one at a time, off the threads of the callers.
+     */
+    private static final ScheduledExecutorService RELOADER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "acl-reloader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Set while a background reload is scheduled and hasn't started yet.
+     */
+    private static final AtomicBoolean RELOAD_SCHEDULED = new AtomicBoolean();
+
+    /**
+     * Number of reloads that failed in a row, for the retry delay.
+     */
+    private static volatile int failedReloads = 0;
+
+    /**
+     * Delay in milliseconds before a failed reload is tried again. Doubled with
+     * every further failure, up to MAX_RELOAD_RETRY_MILLIS.
      */
-    private static HashMap<String, AccessControlListIF> acls;
+    static final long RELOAD_RETRY_MILLIS = 1000L;
+
+    /**
+     * Longest delay in milliseconds between two tries of a failing reload.
+     */
+    static final long MAX_RELOAD_RETRY_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Batches of at least this many paths are checked in parallel by hasPermissions().
+     */
+    private static final int PARALLEL_BATCH_SIZE = 5000;
+
+    /**
+     * Decision tables are compiled in parallel when at least this many ACLs are loaded.
+     */
+    private static final int PARALLEL_COMPILE_SIZE = 256;
 
     /**
      * System properties.
@@ -62,35 +140,41 @@ public final class AccessController {
     private static Persistence permStorage;
 
     /**
-     * Permission to indicate ownership for the ACL.
+     * Role occupants, shared by all snapshots.
      */
-    static String ownerPrm = "";
+    private static final RoleRegistry ROLE_REGISTRY = new RoleRegistry();
 
     /**
-     * Reserved username for entries of anonymous access.
+     * Roles of each user, for lazy role resolution.
      */
-    static String anonymousEntry = "";
+    private static final RoleRegistry USER_ROLES = RoleRegistry.ofUserRoles();
+
     /**
-     * Reserved username for entries for authenticated users.
+     * Shortest time in seconds the roles of a user are kept with lazy role
+     * resolution; a shorter role.user.cache.ttl would read the directory on
+     * nearly every check.
      */
-    static String authEntry = "";
+    static final int MIN_ROLE_USER_CACHE_TTL = 10;
 
     /**
-     * HashMap for groups.
+     * If true, role entries are checked against the roles of the user instead
+     * of reading the occupants of every role while loading.
      */
-    static HashMap<String, Group> groups;
+    private static volatile boolean lazyRoles = false;
+
     /**
-     * HashMap for user entries.
+     * Permission to indicate ownership for the ACL.
      */
-    static HashMap<String, Principal> users;
+    static String ownerPrm = "";
+
     /**
-     * HashMap for permissions.
+     * Reserved username for entries of anonymous access.
      */
-    static HashMap<String, Permission> permissions;
+    static String anonymousEntry = "";
     /**
-     * HashMap for permission descriptions.
+     * Reserved username for entries for authenticated users.
      */
-    static Hashtable<String, String> prmDescrs;
+    static String authEntry = "";
 
     /**
      * Default permissions for ACLs when no DOC and DCC defined.
@@ -98,8 +182,8 @@ public final class AccessController {
     static String defaultDocAndDccPermissions = "v,i,u,d,c";
 
     /**
-     * Indicates if database connection has been lost. if it is in error ACLs
-     * are re-initialized
+     * Indicates if database connection has been lost. If it is in error, getAcls()
+     * asks for a reload in the background.
      */
     static boolean dbInError = false;
 
@@ -132,22 +216,20 @@ public final class AccessController {
     }
 
     /**
-     * Returns all ACLs in the AccessController.
+     * Returns all ACLs in the AccessController. The returned map belongs to the
+     * current snapshot and must not be modified.
      *
      * @return HashMap of ACLs
      * @throws SignOnException if reading fails
      */
     public static HashMap<String, AccessControlListIF> getAcls() throws SignOnException {
 
-        //if DB is in error mode let's try to read ACLs each time until it succeeds
+        // if the database is in error, reload in the background until it succeeds
         if (dbInError) {
-            reset();
+            requestReload();
         }
 
-        if (acls == null) {
-            initAcls();
-        }
-        return acls;
+        return getSnapshot().getAcls();
     }
 
     /**
@@ -158,12 +240,9 @@ public final class AccessController {
      * @throws SignOnException if the ACL does not exist
      */
     public static AccessControlListIF getAcl(String name) throws SignOnException {
-        if (acls == null) {
-            initAcls();
-        }
-
-        if (acls.containsKey(name)) {
-            return acls.get(name);
+        AccessControlListIF acl = getSnapshot().getAcls().get(name);
+        if (acl != null) {
+            return acl;
         } else {
             throw new AclNotFoundException("Could not find ACL by the name of " + name);
         }
@@ -171,37 +250,274 @@ public final class AccessController {
     }
 
     /**
-     * Reads ACL entries from the files and database if database supported.
+     * Returns the published ACL model, loading it first if there is none yet.
+     * Pending reloads are left to the background reloader; callers keep
+     * reading the current snapshot meanwhile.
      *
+     * @return current snapshot
+     * @throws SignOnException if there is no snapshot and loading fails
+     */
+    static AclSnapshot getSnapshot() throws SignOnException {
+        AclSnapshot current = snapshot;
+        if (current == null) {
+            RELOAD_LOCK.lock();
+            try {
+                current = snapshot;
+                if (current == null) {
+                    current = initAcls();
+                }
+            } finally {
+                RELOAD_LOCK.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the model that ACLs under construction must bind to: the snapshot being
+     * loaded during a reload, otherwise the published one.
+     *
+     * @return snapshot for new AccessControlList objects
+     */
+    static AclSnapshot getLoadingSnapshot() {
+        AclSnapshot next = loading;
+        return next != null ? next : snapshot;
+    }
+
+    /**
+     * Reads ACL entries from the files and database if database supported into a new
+     * snapshot and publishes it. The caller must hold RELOAD_LOCK.
+     *
+     * @return the published snapshot
      * @throws SignOnException if error in reading
      */
-    private static void initAcls() throws SignOnException {
+    private static AclSnapshot initAcls() throws SignOnException {
 
+        AclSnapshot next = new AclSnapshot();
+        long requests = RELOAD_REQUESTS.get();
         try {
             readProperties();
 
-            users = new HashMap<String, Principal>();
-            groups = new HashMap<String, Group>();
-            permissions = new HashMap<String, Permission>();
-            prmDescrs = new Hashtable<String, String>();
-            acls = new HashMap<String, AccessControlListIF>();
-
+            loading = next;
             getPersistence();
-            permStorage.readGroups(groups, users);
-            permStorage.readPermissions(permissions, prmDescrs);
-            permStorage.initAcls(acls);
+            permStorage.prefetchAcls();
+            permStorage.readGroups(next.getGroups(), next.getUsers());
+            next.getMembership().addGroups(next.getGroups().values());
+            permStorage.readPermissions(next.getPermissions(), next.getPrmDescrs());
+            if (!lazyRoles) {
+                next.getMembership().addRoles(ROLE_REGISTRY.prefetch(permStorage.readRoleNames()));
+            }
+            permStorage.initAcls(next.getAcls());
+            compileAcls(next.getAcls().values());
         } catch (Exception e) {
-            reset(); // otherwise some acls might remain successfylly in session, others not, causing confusion in user
-            e.printStackTrace(System.out);
+            // the half-built snapshot is dropped, readers keep the previous one
+            failedReloads++;
+            reloadPending = true;
+            scheduleReload();
             throw new SignOnException(e, "Error reading ACLs " + e);
+        } finally {
+            loading = null;
+        }
+
+        next.getMembership().publish();
+        snapshot = next;
+        failedReloads = 0;
+        reloadPending = RELOAD_REQUESTS.get() != requests;
+        if (reloadPending) {
+            scheduleReload();
+        }
+        return next;
+    }
+
+    /**
+     * Asks for a reload in the background, e.g. because role occupants read in
+     * the background have changed. Readers keep the current snapshot meanwhile.
+     */
+    static void requestReload() {
+        RELOAD_REQUESTS.incrementAndGet();
+        reloadPending = true;
+        scheduleReload();
+    }
+
+    /**
+     * Schedules the background reloader unless it is scheduled already. After
+     * failed reloads it waits reloadRetryMillis() before trying again.
+     */
+    private static void scheduleReload() {
+        if (RELOAD_SCHEDULED.compareAndSet(false, true)) {
+            RELOADER.schedule(AccessController::runPendingReload, reloadRetryMillis(failedReloads),
+                    TimeUnit.MILLISECONDS);
         }
     }
 
     /**
-     * Resets ACLs.
+     * Returns how long to wait before the next reload.
+     *
+     * @param failures number of reloads that failed in a row
+     * @return 0 if none failed, else RELOAD_RETRY_MILLIS doubled per further
+     *         failure, at most MAX_RELOAD_RETRY_MILLIS
+     */
+    static long reloadRetryMillis(int failures) {
+        if (failures <= 0) {
+            return 0L;
+        }
+        long delay = RELOAD_RETRY_MILLIS << Math.min(failures - 1, 20);
+        return Math.min(delay, MAX_RELOAD_RETRY_MILLIS);
+    }
+
+    /**
+     * Runs on the background reloader: reloads if a reload is still pending.
+     * A failure is logged once; initAcls() schedules the next try.
+     */
+    private static void runPendingReload() {
+        RELOAD_SCHEDULED.set(false);
+        RELOAD_LOCK.lock();
+        try {
+            if (reloadPending && snapshot != null) {
+                initAcls();
+            }
+        } catch (SignOnException e) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.WARNING,
+                    "Reloading ACLs failed " + failedReloads + " times in a row, trying again in "
+                    + reloadRetryMillis(failedReloads) + " ms: " + e.getMessage());
+        } catch (RuntimeException e) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.SEVERE, "Reloading ACLs failed", e);
+        } finally {
+            RELOAD_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Compiles the decision tables of freshly read ACLs, so that the first
+     * permission checks after a reload don't have to. ACLs carried over
+     * unchanged from the previous snapshot keep their tables.
+     *
+     * @param acls ACLs to compile
+     */
+    private static void compileAcls(Collection<AccessControlListIF> acls) {
+        Stream<AccessControlListIF> stream = acls.stream();
+        if (acls.size() >= PARALLEL_COMPILE_SIZE) {
+            stream = stream.parallel();
+        }
+        stream.filter(acl -> acl instanceof AccessControlList)
+                .map(acl -> (AccessControlList) acl)
+                .filter(acl -> !acl.isCompiled())
+                .forEach(AccessControlList::compile);
+    }
+
+    /**
+     * Reloads ACLs. The new model is built while readers keep using the current one
+     * and then published in one step. If the reload fails the current model stays
+     * in use and the reload is retried in the background.
      */
     static void reset() {
-        acls = null;
+        RELOAD_LOCK.lock();
+        try {
+            initAcls();
+        } catch (SignOnException e) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.SEVERE, "Reloading ACLs failed", e);
+        } finally {
+            RELOAD_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Re-reads one ACL through the persistence layer and publishes a snapshot in
+     * which only that ACL is replaced.
+     *
+     * @param aclPath full ACL path
+     * @param storage persistence layer holding the ACL
+     */
+    static void reloadAcl(String aclPath, Persistence storage) {
+        patchSnapshot(null, aclPath, storage);
+    }
+
+    /**
+     * Publishes a snapshot in which the given ACLs are dropped or re-read and all
+     * others are kept. Used when ACL files are changed on disk.
+     *
+     * @param removedPaths ACLs that no longer exist
+     * @param readPaths ACLs to read again through the persistence layer
+     */
+    static void reloadAcls(Collection<String> removedPaths, Collection<String> readPaths) {
+        patchSnapshot(removedPaths, readPaths, getPersistence());
+    }
+
+    private static void patchSnapshot(String removedPath, String readPath, Persistence storage) {
+        patchSnapshot(removedPath == null ? Collections.<String>emptySet() : Collections.singleton(removedPath),
+                readPath == null ? Collections.<String>emptySet() : Collections.singleton(readPath), storage);
+    }
+
+    /**
+     * Publishes a snapshot that differs from the current one only in the given ACLs.
+     * Falls back to a full reload if the persistence layer cannot read an ACL on its
+     * own or if the incremental update fails. A reload that is pending, e.g. for
+     * changed role occupants, is left to the background reloader.
+     *
+     * @param removedPaths ACLs to drop
+     * @param readPaths ACLs to read through the persistence layer
+     * @param storage persistence layer to read from
+     */
+    private static void patchSnapshot(Collection<String> removedPaths, Collection<String> readPaths,
+            Persistence storage) {
+        RELOAD_LOCK.lock();
+        try {
+            AclSnapshot current = snapshot;
+            if (current == null) {
+                return; // loaded on first use anyway
+            }
+            if (!patchSnapshot(current, removedPaths, readPaths, storage)) {
+                initAcls();
+            }
+        } catch (SignOnException e) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.SEVERE, "Reloading ACLs failed", e);
+        } finally {
+            RELOAD_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Builds and publishes the snapshot for patchSnapshot(). The ACL map and the
+     * principals are copied, groups and permissions are shared with the current
+     * snapshot. Only the ACLs read are new, the others are shared as they are and
+     * keep the principals of the snapshot they were read in, so a user first named
+     * in a re-read ACL is known to the other ACLs after the next full reload.
+     * The caller must hold RELOAD_LOCK.
+     *
+     * @return false if the snapshot could not be patched and needs a full reload
+     */
+    private static boolean patchSnapshot(AclSnapshot current, Collection<String> removedPaths,
+            Collection<String> readPaths, Persistence storage) {
+        try {
+            AclSnapshot next = new AclSnapshot(new HashMap<String, AccessControlListIF>(current.getAcls()),
+                    current.getGroups(), new HashMap<String, Principal>(current.getUsers()),
+                    current.getPermissions(), current.getPrmDescrs(), current.getMembership().copy());
+            for (String removedPath : removedPaths) {
+                next.getAcls().remove(removedPath);
+            }
+            if (!readPaths.isEmpty()) {
+                loading = next;
+                List<AccessControlListIF> read = new ArrayList<AccessControlListIF>(readPaths.size());
+                for (String readPath : readPaths) {
+                    AccessControlListIF acl = storage.readAcl(readPath);
+                    if (acl == null) {
+                        return false;
+                    }
+                    read.add(acl);
+                    next.getAcls().put(readPath, acl);
+                }
+                compileAcls(read);
+            }
+            next.getMembership().publish();
+            snapshot = next;
+            return true;
+        } catch (Exception e) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.WARNING,
+                    "Incremental update of " + removedPaths + " " + readPaths + " failed, reloading all ACLs", e);
+            return false;
+        } finally {
+            loading = null;
+        }
     }
 
     /**
@@ -231,6 +547,54 @@ public final class AccessController {
         if (ownerPrm.length() > 1) {
             throw new SignOnException("Permission must be one letter");
         }
+
+        String roleCacheFile = aclProperties.getRoleCacheFile();
+        ROLE_REGISTRY.setCacheFile(isBlank(roleCacheFile) ? null : new File(roleCacheFile.trim()));
+        ROLE_REGISTRY.setChangeListener(AccessController::requestReload);
+        ROLE_REGISTRY.setTtl(aclProperties.getRoleCacheTtl() * 1000L);
+        lazyRoles = aclProperties.isRoleLazy();
+        int userRolesTtl = aclProperties.getRoleUserCacheTtl();
+        if (lazyRoles && userRolesTtl < MIN_ROLE_USER_CACHE_TTL) {
+            Logger.getLogger(AccessController.class.getName()).log(Level.WARNING,
+                    "role.user.cache.ttl " + userRolesTtl + " is too short, using " + MIN_ROLE_USER_CACHE_TTL);
+            userRolesTtl = MIN_ROLE_USER_CACHE_TTL;
+        }
+        USER_ROLES.setTtl(userRolesTtl * 1000L);
+    }
+
+    /**
+     * Returns true if role entries are resolved per user at check time.
+     */
+    static boolean isLazyRoles() {
+        return lazyRoles;
+    }
+
+    /**
+     * Returns the roles of a user, for lazy role resolution.
+     *
+     * @param userName user name
+     * @return role names; empty if the directory cannot be read
+     */
+    static List<String> getUserRoles(String userName) {
+        return USER_ROLES.get(userName);
+    }
+
+    /**
+     * Returns the registry that all snapshots take role occupants from.
+     *
+     * @return role registry
+     */
+    static RoleRegistry getRoleRegistry() {
+        return ROLE_REGISTRY;
+    }
+
+    /**
+     * Returns the registry of the roles of each user, for lazy role resolution.
+     *
+     * @return user role registry
+     */
+    static RoleRegistry getUserRoleRegistry() {
+        return USER_ROLES;
     }
 
     private static void handleResolverException(Exception ex) throws SignOnException {
@@ -246,6 +610,7 @@ public final class AccessController {
      */
     static Hashtable<String, Vector<String>> getGroups() throws SignOnException {
 
+        HashMap<String, Group> groups = getSnapshot().getGroups();
         Hashtable<String, Vector<String>> h = new Hashtable<String, Vector<String>>();
         for (Iterator i = groups.keySet().iterator(); i.hasNext();) {
             Group group = (Group) groups.get(i.next());
@@ -275,18 +640,145 @@ public final class AccessController {
     /**
      * Method to check if the user has the requested permission. If the user
      * name is null or empty then the user is not authenticated.
+     * If the path has no ACL of its own and the inherit.acls property is set,
+     * the ACL of the nearest ancestor path is used.
      *
      * @param userName - name of the account
      * @param aclPath - like "/" or "/whatever"
      * @param permissionFlag - Permission flag - like "r".
      * @return true if the user has the requested permission.
-     * @throws SignOnException if reading fails
+     * @throws SignOnException if reading fails or there is no ACL for the path
      */
     public static boolean hasPermission(String userName, String aclPath, String permissionFlag) throws SignOnException {
-        AccessControlListIF acl = getAcl(aclPath);
+        AclSnapshot model = getSnapshot();
+        AccessControlListIF acl = findAcl(model, aclPath, aclProperties.isInheritAcls());
+        if (acl == null) {
+            throw new AclNotFoundException("Could not find ACL by the name of " + aclPath);
+        }
         return acl.checkPermission(userName, permissionFlag);
     }
 
+    /**
+     * Finds the ACL that governs the path. That is the path's own ACL, or if
+     * inheritance is on (property inherit.acls) and the path has none, the ACL
+     * of the nearest ancestor path.
+     *
+     * @param model snapshot to look in
+     * @param aclPath - like "/" or "/whatever/object"
+     * @param inherit true to fall back to ancestors
+     * @return the ACL, or null if there is none
+     */
+    static AccessControlListIF findAcl(AclSnapshot model, String aclPath, boolean inherit) {
+        HashMap<String, AccessControlListIF> acls = model.getAcls();
+        AccessControlListIF acl = acls.get(aclPath);
+        String path = aclPath;
+        while (acl == null && inherit && path.length() > 1) {
+            int lastSlash = path.lastIndexOf('/');
+            if (lastSlash == -1) {
+                break;
+            }
+            path = lastSlash == 0 ? "/" : path.substring(0, lastSlash);
+            acl = acls.get(path);
+        }
+        return acl;
+    }
+
+    /**
+     * Returns the ACLs exactly one level below the given ACL, sorted alphabetically.
+     * Example: getChildAcls("/") = ["/LI", "/RA", "/RO"]
+     *
+     * @param parentAclName - like "/" or "/whatever"
+     * @return ACL paths
+     * @throws SignOnException if reading fails
+     */
+    public static List<String> getChildAcls(String parentAclName) throws SignOnException {
+        return getSnapshot().getPathIndex().getChildren(parentAclName);
+    }
+
+    /**
+     * Returns all ACLs below the given ACL at any depth, each parent followed by its
+     * subtree and siblings sorted alphabetically. The given ACL itself isn't included.
+     *
+     * @param aclName - like "/" or "/whatever"
+     * @return ACL paths
+     * @throws SignOnException if reading fails
+     */
+    public static List<String> getSubtreeAcls(String aclName) throws SignOnException {
+        return getSnapshot().getPathIndex().getSubtree(aclName);
+    }
+
+    /**
+     * Checks one permission of the user in many ACLs. The permission and the user
+     * are resolved once and all ACLs are evaluated against the same snapshot.
+     * Large lists are evaluated in parallel. Paths are resolved to ACLs as in
+     * hasPermission(), but a path with no ACL doesn't cause an exception and is
+     * reported as not permitted.
+     *
+     * @param userName - name of the account, null or empty if not authenticated
+     * @param aclPaths - ACL paths like "/" or "/whatever"
+     * @param permissionFlag - Permission flag - like "r".
+     * @return one element per path, true if the user has the permission there
+     * @throws SignOnException if reading fails or the permission is unknown
+     */
+    public static boolean[] hasPermissions(String userName, List<String> aclPaths, String permissionFlag)
+            throws SignOnException {
+        final AclSnapshot model = getSnapshot();
+        Permission permission = model.getPermissions().get(permissionFlag);
+        if (permission == null) {
+            throw new SignOnException("Unknown permission: " + permissionFlag);
+        }
+        final long bit = PermissionBits.maskOf(permission);
+        final String user = isBlank(userName) ? null : userName;
+        final boolean inherit = aclProperties.isInheritAcls();
+        final String[] paths = aclPaths.toArray(new String[aclPaths.size()]);
+        final boolean[] result = new boolean[paths.length];
+        // ACLs of other implementations, by index, checked afterwards the slow way
+        final AccessControlListIF[] others = new AccessControlListIF[paths.length];
+        final Queue<Integer> slowIndexes = new ConcurrentLinkedQueue<Integer>();
+
+        IntStream indexes = IntStream.range(0, paths.length);
+        if (paths.length >= PARALLEL_BATCH_SIZE) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> {
+            AccessControlListIF acl = findAcl(model, paths[i], inherit);
+            if (acl instanceof AccessControlList) {
+                result[i] = (((AccessControlList) acl).getEffectiveMask(user) & bit) != 0;
+            } else if (acl != null) {
+                others[i] = acl;
+                slowIndexes.add(i);
+            }
+        });
+
+        for (int i : slowIndexes) {
+            result[i] = others[i].checkPermission(user, permissionFlag);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ACL paths in which the user has the requested permission, in
+     * the order given. See hasPermissions(String, List, String).
+     *
+     * @param userName - name of the account, null or empty if not authenticated
+     * @param aclPaths - ACL paths like "/" or "/whatever"
+     * @param permissionFlag - Permission flag - like "r".
+     * @return the permitted paths
+     * @throws SignOnException if reading fails or the permission is unknown
+     */
+    public static List<String> filterByPermission(String userName, Collection<String> aclPaths, String permissionFlag)
+            throws SignOnException {
+        List<String> paths = new ArrayList<String>(aclPaths);
+        boolean[] permitted = hasPermissions(userName, paths, permissionFlag);
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < permitted.length; i++) {
+            if (permitted[i]) {
+                result.add(paths.get(i));
+            }
+        }
+        return result;
+    }
+
     /**
      * Method to check if the user has the requested permission. If the
      * principal is null then the user is not authenticated.
@@ -318,9 +810,7 @@ public final class AccessController {
      */
     public static String getPermissions(String user) throws SignOnException {
 
-        if (acls == null) {
-            initAcls();
-        }
+        HashMap<String, AccessControlListIF> acls = getSnapshot().getAcls();
 
         StringBuffer s = new StringBuffer();
         for (Iterator i = acls.keySet().iterator(); i.hasNext();) {
@@ -350,6 +840,16 @@ public final class AccessController {
         return s.toString();
     }
 
+    /**
+     * Permission descriptions of the current snapshot.
+     *
+     * @return permission descriptions by permission id
+     * @throws SignOnException if reading fails
+     */
+    static Hashtable<String, String> getPermissionDescriptions() throws SignOnException {
+        return getSnapshot().getPrmDescrs();
+    }
+
     /**
      * Read groups from an XML file and set to the controller.
      *
@@ -431,8 +931,8 @@ public final class AccessController {
             throw new SignOnException("Operation failed : " + e.toString());
         }
 
-        // reset the ACL container
-        reset();
+        // read the new ACL into the model
+        patchSnapshot(null, aclPath, getPersistence());
     }
 
     /**
@@ -457,7 +957,7 @@ public final class AccessController {
         } catch (Exception e) {
             throw new SignOnException("DB operation failed : " + e.toString());
         }
-        reset();
+        patchSnapshot(aclPath, null, getPersistence());
     }
 
     /**
@@ -488,7 +988,7 @@ public final class AccessController {
         } catch (Exception e) {
             throw new SignOnException("DB operation failed : " + e.toString());
         }
-        reset();
+        patchSnapshot(aclPath, newAclPath, getPersistence());
     }
 
     public static AclProperties getAclProperties() {
@@ -0,0 +1,167 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import eionet.acl.impl.AclImpl;
+import eionet.acl.impl.PermissionBits;
+import eionet.acl.impl.PrincipalImpl;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The effective permissions of one ACL, compiled into a map from principal name
+ * to a PermissionBits mask.
+ * Only principals that can have permissions in the ACL are in the table: users
+ * with an entry of their own and the members of the groups and roles that have
+ * entries. Everybody else has no permissions of their own in this ACL.
+ * The table is built from the ACL and the group memberships as they are when it
+ * is compiled. Both are fixed once the snapshot is published. Any change to them
+ * goes through a reload, which builds new ACLs and compiles new tables.
+ * With lazy role resolution the roles have no members in the snapshot; the table
+ * then keeps the role entries, and the mask of a user in one of their roles is
+ * worked out at check time as if the user were an occupant of their roles.
+ */
+final class AclDecisionTable {
+
+    /** Effective permission mask by principal name, only non-empty masks. */
+    private final HashMap<String, Long> masks;
+
+    /** Roles with entries in the ACL by role name. */
+    private final HashMap<String, Group> roles = new HashMap<String, Group>();
+
+    /** The ACL, kept to work out the masks of users in roles. */
+    private final Acl acl;
+
+    /** Group memberships of the snapshot. */
+    private final MembershipIndex membership;
+
+    /**
+     * Compiles the decision table of an ACL.
+     *
+     * @param acl the ACL
+     * @param membership group memberships of the snapshot the ACL belongs to
+     */
+    AclDecisionTable(Acl acl, MembershipIndex membership) {
+        this.acl = acl;
+        this.membership = membership;
+        Map<String, Principal> principals = new HashMap<String, Principal>();
+        Set<Group> seenGroups = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+        Enumeration<AclEntry> entries = acl.entries();
+        while (entries.hasMoreElements()) {
+            AclEntry entry = entries.nextElement();
+            Principal p = entry.getPrincipal();
+            collectPrincipals(p, principals, seenGroups);
+            if (p instanceof RoleImpl) {
+                roles.put(p.getName(), (Group) p);
+            }
+        }
+
+        masks = new HashMap<String, Long>();
+        for (Map.Entry<String, Principal> p : principals.entrySet()) {
+            long mask = permissionMask(acl, p.getValue(), membership);
+            if (mask != 0L) {
+                masks.put(p.getKey(), mask);
+            }
+        }
+    }
+
+    /**
+     * Returns the effective permissions of a principal in the ACL.
+     *
+     * @param principalName principal name
+     * @return PermissionBits mask, 0 if the principal has no permissions of its own
+     */
+    long getMask(String principalName) {
+        Long mask = masks.get(principalName);
+        return mask == null ? 0L : mask;
+    }
+
+    /**
+     * Returns true if the ACL has role entries.
+     */
+    boolean hasRoleEntries() {
+        return !roles.isEmpty();
+    }
+
+    /**
+     * Returns the effective permissions of a user in the given roles, for lazy
+     * role resolution. The result is the same as if the user were an occupant
+     * of those roles: the role entries count as group entries, so the user's
+     * own entry only overrides them where it denies a permission.
+     *
+     * @param userName user name
+     * @param userRoles names of the roles the user is in
+     * @return PermissionBits mask, 0 if the user has no permissions of their own
+     */
+    long getMask(String userName, Collection<String> userRoles) {
+        if (roles.isEmpty() || !(acl instanceof AclImpl)) {
+            return getMask(userName);
+        }
+        Set<Group> memberOf = null;
+        for (String role : userRoles) {
+            Group g = roles.get(role);
+            if (g != null) {
+                if (memberOf == null) {
+                    memberOf = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+                    memberOf.addAll(membership.groupsOf(userName));
+                }
+                memberOf.add(g);
+            }
+        }
+        if (memberOf == null) {
+            return getMask(userName);
+        }
+        return ((AclImpl) acl).getPermissionMask(new PrincipalImpl(userName), memberOf);
+    }
+
+    private static void collectPrincipals(Principal p, Map<String, Principal> principals, Set<Group> seenGroups) {
+        if (p instanceof Group) {
+            Group g = (Group) p;
+            if (!seenGroups.add(g)) {
+                return;
+            }
+            Enumeration<? extends Principal> members = g.members();
+            while (members.hasMoreElements()) {
+                collectPrincipals(members.nextElement(), principals, seenGroups);
+            }
+        } else if (p != null && !principals.containsKey(p.getName())) {
+            principals.put(p.getName(), p);
+        }
+    }
+
+    private static long permissionMask(Acl acl, Principal p, MembershipIndex membership) {
+        if (acl instanceof AclImpl) {
+            return ((AclImpl) acl).getPermissionMask(p, membership.groupsOf(p.getName()));
+        }
+        long mask = 0L;
+        Enumeration<Permission> perms = acl.getPermissions(p);
+        while (perms.hasMoreElements()) {
+            mask |= PermissionBits.register(perms.nextElement());
+        }
+        return mask;
+    }
+}
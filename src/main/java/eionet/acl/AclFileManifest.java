@@ -0,0 +1,215 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * What PersistenceFile read in the last load, with the content hash of every
+ * file it came from. Every file is read and hashed again on the next load, as
+ * its size and modification time can stay the same across an edit; a file
+ * whose content hash is unchanged isn't parsed again.
+ * Unchanged local groups and permissions are handed out as the same objects, and
+ * an ACL built from them is kept as long as its file, the local groups and the
+ * permissions are all unchanged; each snapshot gets its own copy of it, sharing
+ * the entries and decision table. ACLs with role entries are always rebuilt from
+ * their parsed rows, because role occupants are read again with every load.
+ */
+final class AclFileManifest {
+
+    /**
+     * One ACL file.
+     */
+    static final class Entry {
+        final File file;
+        /** Content hash. */
+        final byte[] hash;
+        final ParsedAcl parsed;
+        /** ACL built from the rows, null until initAcls() builds it. */
+        AccessControlList acl;
+        /** Groups and permissions version the ACL was built with. */
+        long modelVersion;
+
+        Entry(File file, byte[] hash, ParsedAcl parsed) {
+            this.file = file;
+            this.hash = hash;
+            this.parsed = parsed;
+        }
+
+        boolean hasRoles() {
+            for (String row : parsed.rows) {
+                if (row.startsWith("circarole:")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** ACL files by absolute path. */
+    private final HashMap<String, Entry> acls = new HashMap<String, Entry>();
+
+    private byte[] groupsHash;
+    private HashMap<String, Group> groups;
+    private HashMap<String, Principal> groupUsers;
+
+    private byte[] permissionsHash;
+    private HashMap<String, Permission> permissions;
+    private Hashtable<String, String> prmDescrs;
+
+    /** Increased whenever the local groups or the permissions are read anew. */
+    private long modelVersion = 0L;
+
+    /**
+     * Returns the SHA-256 hash of file content.
+     */
+    static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean unchanged(byte[] knownHash, byte[] currentHash) {
+        return knownHash != null && Arrays.equals(knownHash, currentHash);
+    }
+
+    /**
+     * Fills in the local groups read in the last load if the file is unchanged.
+     *
+     * @param hash content hash of the file
+     * @return true if the groups were filled in
+     */
+    synchronized boolean readGroups(byte[] hash, HashMap<String, Group> groups, HashMap<String, Principal> users) {
+        if (!unchanged(groupsHash, hash)) {
+            return false;
+        }
+        groups.putAll(this.groups);
+        users.putAll(groupUsers);
+        return true;
+    }
+
+    /**
+     * Remembers the local groups read from the file.
+     */
+    synchronized void putGroups(byte[] hash, HashMap<String, Group> groups, HashMap<String, Principal> users) {
+        groupsHash = hash;
+        this.groups = new HashMap<String, Group>(groups);
+        groupUsers = new HashMap<String, Principal>(users);
+        modelVersion++;
+    }
+
+    /**
+     * Fills in the permissions read in the last load if the file is unchanged.
+     *
+     * @param hash content hash of the file
+     * @return true if the permissions were filled in
+     */
+    synchronized boolean readPermissions(byte[] hash, Map<String, Permission> permissions,
+            Map<String, String> prmDescrs) {
+        if (!unchanged(permissionsHash, hash)) {
+            return false;
+        }
+        permissions.putAll(this.permissions);
+        prmDescrs.putAll(this.prmDescrs);
+        return true;
+    }
+
+    /**
+     * Remembers the permissions read from the file.
+     */
+    synchronized void putPermissions(byte[] hash, Map<String, Permission> permissions,
+            Map<String, String> prmDescrs) {
+        permissionsHash = hash;
+        this.permissions = new HashMap<String, Permission>(permissions);
+        this.prmDescrs = new Hashtable<String, String>(prmDescrs);
+        modelVersion++;
+    }
+
+    /**
+     * Returns the entry of an ACL file from the last load, or null.
+     */
+    synchronized Entry getAcl(File file) {
+        return acls.get(file.getAbsolutePath());
+    }
+
+    /**
+     * Returns true if the entry is from the last load and the file content is the same.
+     */
+    static boolean unchanged(Entry known, byte[] hash) {
+        return known != null && unchanged(known.hash, hash);
+    }
+
+    /**
+     * Returns the ACL of an entry: a copy of the one built in an earlier load if
+     * neither the file nor the groups and permissions have changed since,
+     * otherwise a new one built from the parsed rows. Records the entry for the
+     * next load.
+     *
+     * @param entry the ACL file's entry in this load
+     * @param storage the persistence layer building ACLs
+     * @param model the snapshot being loaded
+     * @return the ACL
+     * @throws SignOnException if building the ACL fails
+     */
+    synchronized AccessControlList getAcl(Entry entry, PersistenceFile storage, AclSnapshot model)
+            throws SignOnException {
+        acls.put(entry.file.getAbsolutePath(), entry);
+        if (entry.acl != null && entry.modelVersion == modelVersion && !entry.hasRoles()) {
+            entry.acl.addPrincipalsTo(model.getUsers());
+            return new AccessControlList(entry.acl, model);
+        }
+        entry.acl = storage.buildAcl(entry.parsed);
+        entry.modelVersion = modelVersion;
+        return entry.acl;
+    }
+
+    /**
+     * Records an ACL file whose ACL isn't used, because another file has the same name.
+     */
+    synchronized void putAcl(Entry entry) {
+        acls.put(entry.file.getAbsolutePath(), entry);
+    }
+
+    /**
+     * Drops the ACL files that are no longer there.
+     *
+     * @param files the current ACL files
+     */
+    synchronized void retainAcls(Collection<File> files) {
+        HashSet<String> paths = new HashSet<String>();
+        for (File f : files) {
+            paths.add(f.getAbsolutePath());
+        }
+        acls.keySet().retainAll(paths);
+    }
+}
@@ -24,15 +24,21 @@
 
 package eionet.acl;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -40,6 +46,7 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PermissionBits;
 import eionet.acl.impl.PermissionImpl;
 import eionet.acl.impl.PrincipalImpl;
 
@@ -64,8 +71,18 @@ class AclFileReader {
      * @throws SignOnException
      */
     void readGroups(String fileName, HashMap<String, Group> groups, HashMap<String, Principal> users) throws SignOnException  {
+        readGroups(readFileRows(fileName), groups, users);
+    }
 
-        ArrayList<String> uRows = readFileRows(fileName);
+    /**
+     * Read groups and group memberships from the rows of a group file.
+     *
+     * @param uRows rows as returned by readRows()
+     * @param groups
+     * @param users
+     * @throws SignOnException
+     */
+    void readGroups(List<String> uRows, HashMap<String, Group> groups, HashMap<String, Principal> users) throws SignOnException  {
 
         //process the file Rows
         for (Iterator i = uRows.iterator(); i.hasNext();) {
@@ -84,25 +101,79 @@ class AclFileReader {
      * @throws SignOnException
      */
     ArrayList<String> readFileRows(String fileName) throws SignOnException {
-
-        ArrayList<String> rows = new ArrayList<String>();
         try {
-            FileReader fr = new FileReader(fileName);
-            BufferedReader  reader  = new BufferedReader(fr);
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                String trimmedLine = line.trim();
-                if (trimmedLine.length() > 0)
-                    rows.add(trimmedLine);
-            }
+            return readRows(readFile(fileName));
         } catch (FileNotFoundException noe) {
             throw new SignOnException(noe, "No such file: " + fileName);
         } catch (IOException ioe) {
             throw new SignOnException(ioe, "I/O error reading file: " + fileName);
         }
+    }
 
+    /**
+     * Split file contents into lines. The content is decoded as UTF-8, the
+     * lines are trimmed for spaces and empty lines are ignored.
+     *
+     * @param content file contents
+     * @return a list containing the lines of the file.
+     */
+    static ArrayList<String> readRows(byte[] content) {
+        int start = bomLength(content);
+        String text = new String(content, start, content.length - start, StandardCharsets.UTF_8);
+
+        ArrayList<String> rows = new ArrayList<String>();
+        int pos = 0;
+        while (pos < text.length()) {
+            int end = pos;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            String trimmedLine = text.substring(pos, end).trim();
+            if (trimmedLine.length() > 0)
+                rows.add(trimmedLine);
+            pos = end + 1;
+        }
         return rows;
     }
 
+    /**
+     * Reads a whole file with one channel read.
+     *
+     * @param fileName
+     * @return file contents
+     * @throws FileNotFoundException if there is no such file
+     * @throws IOException if reading fails
+     */
+    static byte[] readFile(String fileName) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File too large: " + fileName);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the buffer is full
+            }
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the length of the UTF-8 byte order mark the content starts with, or 0.
+     */
+    static int bomLength(byte[] content) {
+        if (content.length >= 3 && (content[0] & 0xFF) == 0xEF && (content[1] & 0xFF) == 0xBB && (content[2] & 0xFF) == 0xBF)
+            return 3;
+        return 0;
+    }
+
     /**
      * Split a string containing a group name and members separated by colon.
      *
@@ -154,7 +225,18 @@ class AclFileReader {
      * @throws SignOnException
      */
     void readPermissions(String fileFullPath, Map<String, Permission> permissions, Map<String, String> prmDescrs) throws SignOnException {
-        ArrayList<String> pRows = readFileRows(fileFullPath);
+        readPermissions(readFileRows(fileFullPath), permissions, prmDescrs);
+    }
+
+    /**
+     * Read the permissions from the rows of a permissions file.
+     *
+     * @param pRows rows as returned by readRows()
+     * @param permissions
+     * @param prmDescrs
+     * @throws SignOnException
+     */
+    void readPermissions(List<String> pRows, Map<String, Permission> permissions, Map<String, String> prmDescrs) throws SignOnException {
         for (Iterator i = pRows.iterator(); i.hasNext();) {
             String pRow = (String) i.next();
             processPermissions(pRow, permissions, prmDescrs);
@@ -180,6 +262,7 @@ class AclFileReader {
 
         String description = pRow.substring(i + 1);
         Permission perm = new PermissionImpl(permId);
+        PermissionBits.register(perm);
 
         //l("putting permission to Hash '" + permId + "'");
         permissions.put(permId, perm);
@@ -268,9 +351,7 @@ class AclFileReader {
             if (!file.canWrite())
                 throw new IOException("The system isn't allowed to write to file: " + fileName);
 
-            FileWriter fw = new FileWriter(file);
-
-            BufferedWriter writer = new BufferedWriter(fw);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
 
             for (Iterator i = fRows.iterator(); i.hasNext();) {
                 String line = (String) i.next();
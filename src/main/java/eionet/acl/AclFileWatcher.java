@@ -0,0 +1,267 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the ACL folder and the local groups and permissions files and
+ * brings the published snapshot up to date when they are edited on disk.
+ * Events are collected until the files have been quiet for DEBOUNCE_MILLIS,
+ * so that saving a file or copying a batch of them causes one update. Changed
+ * ACL files are re-read one by one; a change to the groups or permissions
+ * file, a deleted ACL file or lost events cause a full reload.
+ */
+final class AclFileWatcher implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(AclFileWatcher.class);
+
+    /** Changes are applied once no further change has been seen for this long. */
+    static final long DEBOUNCE_MILLIS = 500L;
+
+    /** Changes are applied after at most this long even if events keep coming. */
+    static final long MAX_DELAY_MILLIS = 5000L;
+
+    /**
+     * What the watcher does with the collected changes.
+     */
+    interface Reloader {
+        /** Reloads all ACLs, groups and permissions. */
+        void reloadAll();
+
+        /** Reads the ACLs with the given paths again. */
+        void reloadAcls(Set<String> readPaths);
+    }
+
+    /** Applies the changes to the snapshot of AccessController. */
+    private static final Reloader ACCESS_CONTROLLER = new Reloader() {
+        @Override
+        public void reloadAll() {
+            AccessController.reset();
+        }
+
+        @Override
+        public void reloadAcls(Set<String> readPaths) {
+            AccessController.reloadAcls(Collections.<String>emptySet(), readPaths);
+        }
+    };
+
+    /** The running watcher, if any. */
+    private static AclFileWatcher current;
+
+    private final Reloader reloader;
+    private final WatchService watchService;
+    private final Path aclFolder;
+    private final Path groupsFile;
+    private final Path permissionsFile;
+    /** Watched directory by key. */
+    private final HashMap<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+
+    /**
+     * Creates a watcher; run() watches until close() is called.
+     *
+     * @param aclFolderName folder of the ACL files
+     * @param groupsFileName local groups file, or null
+     * @param permissionsFileName permissions file, or null
+     * @param reloader applies the changes
+     * @throws IOException if the folders cannot be watched
+     */
+    AclFileWatcher(String aclFolderName, String groupsFileName, String permissionsFileName, Reloader reloader)
+            throws IOException {
+        this.reloader = reloader;
+        aclFolder = Paths.get(aclFolderName).toAbsolutePath().normalize();
+        groupsFile = groupsFileName == null ? null : Paths.get(groupsFileName).toAbsolutePath().normalize();
+        permissionsFile = permissionsFileName == null ? null : Paths.get(permissionsFileName).toAbsolutePath().normalize();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            register(aclFolder);
+            if (groupsFile != null) {
+                register(groupsFile.getParent());
+            }
+            if (permissionsFile != null) {
+                register(permissionsFile.getParent());
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        if (dir != null && !dirs.containsValue(dir)) {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            dirs.put(key, dir);
+        }
+    }
+
+    /**
+     * Starts watching the files, replacing a watcher started earlier.
+     *
+     * @param aclFolderName folder of the ACL files
+     * @param groupsFileName local groups file, or null
+     * @param permissionsFileName permissions file, or null
+     */
+    static synchronized void start(String aclFolderName, String groupsFileName, String permissionsFileName) {
+        stop();
+        try {
+            AclFileWatcher watcher = new AclFileWatcher(aclFolderName, groupsFileName, permissionsFileName,
+                    ACCESS_CONTROLLER);
+            Thread thread = new Thread(watcher, "acl-file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            current = watcher;
+            LOGGER.info("Watching ACL files in " + watcher.aclFolder);
+        } catch (IOException e) {
+            LOGGER.error("Cannot watch ACL files in " + aclFolderName + ": " + e);
+        }
+    }
+
+    /**
+     * Stops the running watcher, if any.
+     */
+    static synchronized void stop() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Stops watching; run() returns.
+     */
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error in closing watch service " + e);
+        }
+    }
+
+    /**
+     * Returns how long to wait for further events before applying the changes:
+     * DEBOUNCE_MILLIS, but no longer than until MAX_DELAY_MILLIS after the first change.
+     *
+     * @param firstChange time of the first change not yet applied
+     * @param now current time
+     * @return milliseconds to wait, 0 or less to apply the changes now
+     */
+    static long waitMillis(long firstChange, long now) {
+        return Math.min(DEBOUNCE_MILLIS, firstChange + MAX_DELAY_MILLIS - now);
+    }
+
+    @Override
+    public void run() {
+        // ACL file names changed since the last update
+        TreeSet<String> changedFiles = new TreeSet<String>();
+        boolean fullReload = false;
+        long firstChange = 0L;
+        try {
+            while (true) {
+                WatchKey key;
+                if (changedFiles.isEmpty() && !fullReload) {
+                    key = watchService.take();
+                    firstChange = System.currentTimeMillis();
+                } else {
+                    long wait = waitMillis(firstChange, System.currentTimeMillis());
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        apply(changedFiles, fullReload);
+                        changedFiles.clear();
+                        fullReload = false;
+                        continue;
+                    }
+                }
+
+                Path dir = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        fullReload = true;
+                        continue;
+                    }
+                    Path file = dir.resolve((Path) event.context());
+                    if (file.equals(groupsFile) || file.equals(permissionsFile)) {
+                        fullReload = true;
+                    } else if (dir.equals(aclFolder) && isAclFile(file.getFileName().toString())) {
+                        changedFiles.add(file.getFileName().toString());
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.warn("No longer watching " + dir);
+                    dirs.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies the collected changes. Never throws, the watcher must keep running.
+     */
+    private void apply(TreeSet<String> changedFiles, boolean fullReload) {
+        try {
+            TreeSet<String> readPaths = new TreeSet<String>();
+            for (String fileName : changedFiles) {
+                String baseName = fileName.substring(0, fileName.toLowerCase().indexOf(".acl"));
+                if (!Files.isRegularFile(aclFolder.resolve(baseName + ".acl"))
+                        && !Files.isRegularFile(aclFolder.resolve(baseName + ".acl.xml"))) {
+                    fullReload = true; // the ACL was deleted
+                }
+                readPaths.add(baseName.replace('_', '/'));
+            }
+
+            if (fullReload) {
+                LOGGER.info("ACL configuration files changed, reloading all ACLs");
+                reloader.reloadAll();
+            } else if (!readPaths.isEmpty()) {
+                LOGGER.info("ACL files changed, reloading " + readPaths);
+                reloader.reloadAcls(readPaths);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to reload changed ACL files", e);
+        }
+    }
+
+    private static boolean isAclFile(String fileName) {
+        String lowerCase = fileName.toLowerCase();
+        return lowerCase.endsWith(".acl") || lowerCase.endsWith(".acl.xml");
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tree of the ACL paths of one snapshot, one node per path segment. Answers
+ * child and subtree queries in time proportional to the size of the answer.
+ * Child lists are sorted alphabetically the first time they are asked for and
+ * then kept, the snapshot never changes.
+ */
+final class AclPathIndex {
+
+    /** Node of "/". */
+    private final Node root = new Node("/");
+
+    /**
+     * Builds the index.
+     *
+     * @param aclPaths all ACL paths of the snapshot
+     */
+    AclPathIndex(Collection<String> aclPaths) {
+        for (String path : aclPaths) {
+            Node node = root;
+            for (String segment : segments(path)) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node(node == root ? "/" + segment : node.key + "/" + segment);
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            node.path = path;
+        }
+    }
+
+    /**
+     * Returns the ACLs exactly one level below the given path, sorted alphabetically.
+     *
+     * @param aclPath parent path, like "/" or "/whatever"
+     * @return unmodifiable list of ACL paths; empty if there are none
+     */
+    List<String> getChildren(String aclPath) {
+        Node node = find(aclPath);
+        return node == null ? Collections.<String>emptyList() : node.getSortedChildren();
+    }
+
+    /**
+     * Returns all ACLs below the given path at any depth, parents before their
+     * children and siblings sorted alphabetically. The path itself isn't included.
+     *
+     * @param aclPath top path, like "/" or "/whatever"
+     * @return list of ACL paths; empty if there are none
+     */
+    List<String> getSubtree(String aclPath) {
+        List<String> result = new ArrayList<String>();
+        Node node = find(aclPath);
+        if (node != null) {
+            addSubtree(node, result);
+        }
+        return result;
+    }
+
+    private void addSubtree(Node node, List<String> result) {
+        for (Node child : node.getSortedNodes()) {
+            if (child.path != null) {
+                result.add(child.path);
+            }
+            addSubtree(child, result);
+        }
+    }
+
+    private Node find(String aclPath) {
+        Node node = root;
+        for (String segment : segments(aclPath)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Splits an ACL path into its segments. "/" has none.
+     */
+    private static List<String> segments(String aclPath) {
+        List<String> segments = new ArrayList<String>();
+        int start = aclPath.startsWith("/") ? 1 : 0;
+        while (start < aclPath.length()) {
+            int end = aclPath.indexOf('/', start);
+            if (end == -1) {
+                end = aclPath.length();
+            }
+            segments.add(aclPath.substring(start, end));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * One path segment. Nodes without a path are only on the way to deeper ACLs.
+     */
+    private static final class Node {
+        /** Path of this node, used for sorting. */
+        final String key;
+        /** ACL path if there is an ACL here, otherwise null. */
+        String path;
+        final HashMap<String, Node> children = new HashMap<String, Node>();
+        /** Child nodes sorted by key, built on first use. */
+        private volatile List<Node> sortedNodes;
+        /** ACL paths of the children, built on first use. */
+        private volatile List<String> sortedChildren;
+
+        Node(String key) {
+            this.key = key;
+        }
+
+        List<Node> getSortedNodes() {
+            List<Node> nodes = sortedNodes;
+            if (nodes == null) {
+                nodes = new ArrayList<Node>(children.values());
+                final Collator collator = Collator.getInstance();
+                Collections.sort(nodes, (a, b) -> collator.compare(a.key, b.key));
+                nodes = Collections.unmodifiableList(nodes);
+                sortedNodes = nodes;
+            }
+            return nodes;
+        }
+
+        List<String> getSortedChildren() {
+            List<String> paths = sortedChildren;
+            if (paths == null) {
+                paths = new ArrayList<String>();
+                for (Node child : getSortedNodes()) {
+                    if (child.path != null) {
+                        paths.add(child.path);
+                    }
+                }
+                paths = Collections.unmodifiableList(paths);
+                sortedChildren = paths;
+            }
+            return paths;
+        }
+    }
+}
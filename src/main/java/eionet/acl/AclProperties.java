@@ -1,5 +1,7 @@
 package eionet.acl;
 
+import javax.sql.DataSource;
+
 /**
  *
  * @author Aris Katsanas <aka@eworx.gr>
@@ -20,6 +22,16 @@ public class AclProperties {
     private String dbDriver;
     private String dbUser;
     private String dbPwd;
+    private boolean inheritAcls;
+    private DataSource dataSource;
+    private String dbJndiName;
+    private int dbPoolSize = 10;
+    private String fileCache;
+    private boolean fileWatch;
+    private int roleCacheTtl = 0;
+    private boolean roleLazy;
+    private int roleUserCacheTtl = 300;
+    private String roleCacheFile;
     
     public String getOwnerPermission() {
         return ownerPermission;
@@ -133,6 +145,125 @@ public class AclProperties {
         this.dbPwd = dbPwd;
     }
     
+    public boolean isInheritAcls() {
+        return inheritAcls;
+    }
+
+    /**
+     * If true, a permission check on a path without an ACL of its own uses the
+     * ACL of the nearest ancestor path instead of failing.
+     */
+    public void setInheritAcls(boolean inheritAcls) {
+        this.inheritAcls = inheritAcls;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * DataSource for the ACL tables. If set, the db.* connection properties are not used.
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public String getDbJndiName() {
+        return dbJndiName;
+    }
+
+    /**
+     * JNDI name of the DataSource for the ACL tables, e.g. java:comp/env/jdbc/acl.
+     * Only used if no DataSource has been set.
+     */
+    public void setDbJndiName(String dbJndiName) {
+        this.dbJndiName = dbJndiName;
+    }
+
+    public int getDbPoolSize() {
+        return dbPoolSize;
+    }
+
+    /**
+     * Maximum number of connections of the built-in pool, which is used if
+     * there is no DataSource.
+     */
+    public void setDbPoolSize(int dbPoolSize) {
+        this.dbPoolSize = dbPoolSize;
+    }
+
+    public String getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * File where the contents of the permissions, local groups and ACL files
+     * are cached between restarts. No cache is kept if this is not set.
+     */
+    public void setFileCache(String fileCache) {
+        this.fileCache = fileCache;
+    }
+
+    public boolean isFileWatch() {
+        return fileWatch;
+    }
+
+    /**
+     * If true, changes to the ACL, local groups and permissions files are
+     * picked up while the application runs.
+     */
+    public void setFileWatch(boolean fileWatch) {
+        this.fileWatch = fileWatch;
+    }
+
+    public int getRoleCacheTtl() {
+        return roleCacheTtl;
+    }
+
+    /**
+     * Seconds for which role occupants read from the directory are used by later
+     * reloads. 0 reads them again with every reload.
+     */
+    public void setRoleCacheTtl(int roleCacheTtl) {
+        this.roleCacheTtl = roleCacheTtl;
+    }
+
+    public boolean isRoleLazy() {
+        return roleLazy;
+    }
+
+    /**
+     * If true, role entries are checked against the roles of the requesting user,
+     * read from the directory when needed, instead of reading the occupants of
+     * every role when the ACLs are loaded.
+     */
+    public void setRoleLazy(boolean roleLazy) {
+        this.roleLazy = roleLazy;
+    }
+
+    public int getRoleUserCacheTtl() {
+        return roleUserCacheTtl;
+    }
+
+    /**
+     * Seconds for which the roles of a user are used with lazy role resolution.
+     */
+    public void setRoleUserCacheTtl(int roleUserCacheTtl) {
+        this.roleUserCacheTtl = roleUserCacheTtl;
+    }
+
+    public String getRoleCacheFile() {
+        return roleCacheFile;
+    }
+
+    /**
+     * File where the last role occupants read from the directory are kept, to
+     * be used at the next start while they are read again.
+     */
+    public void setRoleCacheFile(String roleCacheFile) {
+        this.roleCacheFile = roleCacheFile;
+    }
+
     public AclProperties(){
         
     }
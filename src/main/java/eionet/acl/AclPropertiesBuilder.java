@@ -26,6 +26,21 @@ public final class AclPropertiesBuilder {
         aclProperties.setDbDriver(props.getProperty("db.driver"));
         aclProperties.setDbUser(props.getProperty("db.user"));
         aclProperties.setDbPwd(props.getProperty("db.pwd"));
+        aclProperties.setInheritAcls(Boolean.parseBoolean(props.getProperty("inherit.acls")));
+        aclProperties.setDbJndiName(props.getProperty("db.jndiname"));
+        aclProperties.setFileCache(props.getProperty("file.cache"));
+        aclProperties.setFileWatch(Boolean.parseBoolean(props.getProperty("file.watch")));
+        if (props.getProperty("db.pool.size") != null) {
+            aclProperties.setDbPoolSize(Integer.parseInt(props.getProperty("db.pool.size").trim()));
+        }
+        if (props.getProperty("role.cache.ttl") != null) {
+            aclProperties.setRoleCacheTtl(Integer.parseInt(props.getProperty("role.cache.ttl").trim()));
+        }
+        aclProperties.setRoleLazy(Boolean.parseBoolean(props.getProperty("role.lazy")));
+        aclProperties.setRoleCacheFile(props.getProperty("role.cache.file"));
+        if (props.getProperty("role.user.cache.ttl") != null) {
+            aclProperties.setRoleUserCacheTtl(Integer.parseInt(props.getProperty("role.user.cache.ttl").trim()));
+        }
         
     }
     public static AclProperties AclPropertiesBuilder ( Properties props ){
@@ -0,0 +1,128 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One consistent generation of the ACL model: the ACLs together with the groups,
+ * users and permissions they were built from.
+ * A snapshot is filled while it is being loaded and is not modified after
+ * AccessController has published it. A reload builds a new snapshot on the side
+ * and replaces the published one in a single step, so readers always see either
+ * the old or the new model, never a mixture.
+ */
+final class AclSnapshot {
+
+    /** Source of snapshot version numbers. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** Version of this snapshot, increasing with every load. */
+    private final long version;
+
+    /** ACLs by full path. */
+    private final HashMap<String, AccessControlListIF> acls;
+
+    /** Local groups by name. */
+    private final HashMap<String, Group> groups;
+
+    /** Known principals by name. */
+    private final HashMap<String, Principal> users;
+
+    /** Permissions by id. */
+    private final HashMap<String, Permission> permissions;
+
+    /** Permission descriptions by id. */
+    private final Hashtable<String, String> prmDescrs;
+
+    /** Groups and roles of every principal. */
+    private final MembershipIndex membership;
+
+    /** Tree of the ACL paths, built on first use. */
+    private volatile AclPathIndex pathIndex;
+
+    /**
+     * Creates an empty snapshot to be filled by the persistence layer.
+     */
+    AclSnapshot() {
+        this(new HashMap<String, AccessControlListIF>(), new HashMap<String, Group>(),
+                new HashMap<String, Principal>(), new HashMap<String, Permission>(), new Hashtable<String, String>(),
+                new MembershipIndex());
+    }
+
+    /**
+     * Creates a snapshot from already loaded parts.
+     */
+    AclSnapshot(HashMap<String, AccessControlListIF> acls, HashMap<String, Group> groups,
+            HashMap<String, Principal> users, HashMap<String, Permission> permissions,
+            Hashtable<String, String> prmDescrs, MembershipIndex membership) {
+        this.version = VERSIONS.incrementAndGet();
+        this.acls = acls;
+        this.groups = groups;
+        this.users = users;
+        this.permissions = permissions;
+        this.prmDescrs = prmDescrs;
+        this.membership = membership;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    HashMap<String, AccessControlListIF> getAcls() {
+        return acls;
+    }
+
+    HashMap<String, Group> getGroups() {
+        return groups;
+    }
+
+    HashMap<String, Principal> getUsers() {
+        return users;
+    }
+
+    HashMap<String, Permission> getPermissions() {
+        return permissions;
+    }
+
+    Hashtable<String, String> getPrmDescrs() {
+        return prmDescrs;
+    }
+
+    MembershipIndex getMembership() {
+        return membership;
+    }
+
+    /**
+     * Returns the tree of ACL paths. Only to be used on a published snapshot.
+     */
+    AclPathIndex getPathIndex() {
+        AclPathIndex index = pathIndex;
+        if (index == null) {
+            index = new AclPathIndex(acls.keySet());
+            pathIndex = index;
+        }
+        return index;
+    }
+}
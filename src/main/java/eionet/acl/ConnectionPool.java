@@ -0,0 +1,199 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Small connection pool used by PersistenceDB when the application doesn't
+ * supply a DataSource. At most maxSize connections are open at the same time.
+ * Idle connections are validated before they are handed out again and
+ * discarded if they no longer work. Closing a connection returned by
+ * getConnection() gives it back to the pool.
+ */
+final class ConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class);
+
+    /** Seconds to wait for Connection.isValid(). */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    /** Default milliseconds to wait for a free connection. */
+    private static final long BORROW_TIMEOUT = 30000L;
+
+    private final String url;
+    private final String user;
+    private final String pwd;
+
+    /** Milliseconds to wait for a free connection. */
+    private final long borrowTimeout;
+
+    /** One permit per connection that may still be handed out. */
+    private final Semaphore permits;
+
+    /** Idle connections, most recently used first. */
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<Connection>();
+
+    /**
+     * Creates a pool. No connections are opened until they are needed.
+     *
+     * @param driver JDBC driver class
+     * @param url JDBC URL
+     * @param user database user
+     * @param pwd database password
+     * @param maxSize maximum number of open connections
+     * @throws ClassNotFoundException if the driver class is not found
+     */
+    ConnectionPool(String driver, String url, String user, String pwd, int maxSize) throws ClassNotFoundException {
+        this(driver, url, user, pwd, maxSize, BORROW_TIMEOUT);
+    }
+
+    /**
+     * Creates a pool that waits the given time for a free connection.
+     *
+     * @param driver JDBC driver class
+     * @param url JDBC URL
+     * @param user database user
+     * @param pwd database password
+     * @param maxSize maximum number of open connections
+     * @param borrowTimeout milliseconds to wait for a free connection
+     * @throws ClassNotFoundException if the driver class is not found
+     */
+    ConnectionPool(String driver, String url, String user, String pwd, int maxSize, long borrowTimeout)
+            throws ClassNotFoundException {
+        Class.forName(driver);
+        this.url = url;
+        this.user = user;
+        this.pwd = pwd;
+        this.permits = new Semaphore(maxSize, true);
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Returns a working connection, reusing an idle one if there is one.
+     *
+     * @return connection to be closed by the caller
+     * @throws SQLException if no connection could be opened or none got free in time
+     */
+    Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("No free database connection within " + borrowTimeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        try {
+            Connection con;
+            while ((con = idle.pollFirst()) != null) {
+                if (isUsable(con)) {
+                    return wrap(con);
+                }
+                closeQuietly(con);
+            }
+            return wrap(DriverManager.getConnection(url, user, pwd));
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static boolean isUsable(Connection con) {
+        try {
+            return con.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Error in closing connection " + e);
+        }
+    }
+
+    /**
+     * Takes a connection back. Unfinished transactions are rolled back.
+     */
+    private void release(Connection con) {
+        try {
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            idle.offerFirst(con);
+        } catch (SQLException e) {
+            closeQuietly(con);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wraps the connection so that close() returns it to the pool.
+     */
+    private Connection wrap(final Connection con) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("close")) {
+                    if (!closed) {
+                        closed = true;
+                        release(con);
+                    }
+                    return null;
+                } else if (name.equals("isClosed")) {
+                    return closed || con.isClosed();
+                } else if (closed) {
+                    throw new SQLException("Connection is closed");
+                }
+                try {
+                    return method.invoke(con, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, handler);
+    }
+}
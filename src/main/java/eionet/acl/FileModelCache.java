@@ -0,0 +1,412 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PermissionBits;
+import eionet.acl.impl.PermissionImpl;
+import eionet.acl.impl.PrincipalImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary cache of what PersistenceFile reads from its files: the permissions,
+ * the local groups and the parsed rows of every ACL file. Each part is stored
+ * with the SHA-256 hash of the file content it came from and is only used for
+ * content with the same hash, so a changed file is always parsed again.
+ * The cache is read once when PersistenceFile is created and written back
+ * after a load in which something had to be read from the files.
+ */
+final class FileModelCache {
+
+    private static final Logger LOGGER = Logger.getLogger(FileModelCache.class);
+
+    private static final int MAGIC = 0xAC1CAC4E;
+
+    /** Increased whenever the layout changes; caches of other versions are ignored. */
+    private static final int VERSION = 2;
+
+    /** Where the cache is stored. */
+    private final File cacheFile;
+
+    private Source<LinkedHashMap<String, String>> permissions;
+    private Source<LinkedHashMap<String, List<String>>> groups;
+    /** Parsed ACL files by absolute path. */
+    private final HashMap<String, Source<ParsedAcl>> acls = new HashMap<String, Source<ParsedAcl>>();
+
+    /** True if the cache differs from what is on disk. */
+    private boolean dirty = false;
+
+    private FileModelCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Cached content of one file.
+     */
+    private static final class Source<T> {
+        final String path;
+        /** SHA-256 of the file content. */
+        final byte[] hash;
+        final T content;
+
+        Source(String path, byte[] hash, T content) {
+            this.path = path;
+            this.hash = hash;
+            this.content = content;
+        }
+
+        boolean matches(File file, byte[] current) {
+            return path.equals(file.getAbsolutePath()) && Arrays.equals(hash, current);
+        }
+    }
+
+    /**
+     * Reads the cache. A missing, outdated or damaged cache gives an empty one.
+     *
+     * @param cacheFile cache file
+     * @return the cache
+     */
+    static FileModelCache open(File cacheFile) {
+        FileModelCache cache = new FileModelCache(cacheFile);
+        try {
+            cache.read(AclFileReader.readFile(cacheFile.getPath()));
+        } catch (FileNotFoundException e) {
+            LOGGER.info("No ACL cache in " + cacheFile + " yet");
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable ACL cache " + cacheFile + ": " + e);
+            cache = new FileModelCache(cacheFile);
+        }
+        return cache;
+    }
+
+    /**
+     * Fills the maps from the cache if the permissions file hasn't changed.
+     *
+     * @return true if the maps were filled
+     */
+    synchronized boolean readPermissions(File file, byte[] hash, Map<String, Permission> permissionsMap,
+            Map<String, String> prmDescrs) {
+        if (permissions == null || !permissions.matches(file, hash)) {
+            return false;
+        }
+        for (Map.Entry<String, String> e : permissions.content.entrySet()) {
+            Permission prm = new PermissionImpl(e.getKey());
+            PermissionBits.register(prm);
+            permissionsMap.put(e.getKey(), prm);
+            prmDescrs.put(e.getKey(), e.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Stores the permissions read from the file, in the order they were declared.
+     */
+    synchronized void putPermissions(File file, byte[] hash, Map<String, Permission> permissionsMap,
+            Map<String, String> prmDescrs) {
+        List<Permission> ordered = new ArrayList<Permission>(permissionsMap.values());
+        ordered.sort((a, b) -> Long.compareUnsigned(PermissionBits.maskOf(a), PermissionBits.maskOf(b)));
+        LinkedHashMap<String, String> content = new LinkedHashMap<String, String>();
+        for (Permission prm : ordered) {
+            String id = prm.toString();
+            String descr = prmDescrs.get(id);
+            content.put(id, descr == null ? "" : descr);
+        }
+        permissions = new Source<LinkedHashMap<String, String>>(file.getAbsolutePath(), hash, content);
+        dirty = true;
+    }
+
+    /**
+     * Fills the maps from the cache if the groups file hasn't changed.
+     *
+     * @return true if the maps were filled
+     */
+    synchronized boolean readGroups(File file, byte[] hash, HashMap<String, Group> groupsMap,
+            HashMap<String, Principal> users) {
+        if (groups == null || !groups.matches(file, hash)) {
+            return false;
+        }
+        for (Map.Entry<String, List<String>> e : groups.content.entrySet()) {
+            Group group = new GroupImpl(e.getKey());
+            for (String userID : e.getValue()) {
+                Principal principal = users.get(userID);
+                if (principal == null) {
+                    principal = new PrincipalImpl(userID);
+                    users.put(userID, principal);
+                }
+                group.addMember(principal);
+            }
+            groupsMap.put(e.getKey(), group);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the groups read from the file. Groups that contain other groups
+     * aren't cached.
+     */
+    synchronized void putGroups(File file, byte[] hash, Map<String, Group> groupsMap) {
+        groups = null;
+        LinkedHashMap<String, List<String>> content = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, Group> e : groupsMap.entrySet()) {
+            List<String> members = new ArrayList<String>();
+            Enumeration<? extends Principal> m = e.getValue().members();
+            while (m.hasMoreElements()) {
+                Principal p = m.nextElement();
+                if (p instanceof Group) {
+                    return;
+                }
+                members.add(p.getName());
+            }
+            content.put(e.getKey(), members);
+        }
+        groups = new Source<LinkedHashMap<String, List<String>>>(file.getAbsolutePath(), hash, content);
+        dirty = true;
+    }
+
+    /**
+     * Returns the parsed ACL file if the file hasn't changed.
+     *
+     * @return parsed file or null
+     */
+    synchronized ParsedAcl getAcl(File file, byte[] hash) {
+        Source<ParsedAcl> source = acls.get(file.getAbsolutePath());
+        return source != null && source.matches(file, hash) ? source.content : null;
+    }
+
+    /**
+     * Stores a parsed ACL file.
+     */
+    synchronized void putAcl(File file, byte[] hash, ParsedAcl parsed) {
+        acls.put(file.getAbsolutePath(), new Source<ParsedAcl>(file.getAbsolutePath(), hash, parsed));
+        dirty = true;
+    }
+
+    /**
+     * Drops the ACL files that are no longer there.
+     *
+     * @param files the current ACL files
+     */
+    synchronized void retainAcls(Collection<File> files) {
+        HashSet<String> paths = new HashSet<String>();
+        for (File f : files) {
+            paths.add(f.getAbsolutePath());
+        }
+        if (acls.keySet().retainAll(paths)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the cache to disk if it changed. The file is replaced in one step,
+     * so a crash leaves either the old or the new cache. Failures are only logged.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out);
+            out.flush();
+            replaceFile(cacheFile, bytes.toByteArray());
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write ACL cache " + cacheFile + ": " + e);
+        }
+    }
+
+    /**
+     * Replaces the content of a file in one step: the content is written to a
+     * temporary file next to it, which is then moved over it.
+     *
+     * @param file file to replace
+     * @param content new content
+     * @throws IOException if writing fails; the file is then unchanged
+     */
+    static void replaceFile(File file, byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeBoolean(permissions != null);
+        if (permissions != null) {
+            writeSource(out, permissions);
+            out.writeInt(permissions.content.size());
+            for (Map.Entry<String, String> e : permissions.content.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        }
+
+        out.writeBoolean(groups != null);
+        if (groups != null) {
+            writeSource(out, groups);
+            out.writeInt(groups.content.size());
+            for (Map.Entry<String, List<String>> e : groups.content.entrySet()) {
+                writeString(out, e.getKey());
+                writeStrings(out, e.getValue());
+            }
+        }
+
+        out.writeInt(acls.size());
+        for (Source<ParsedAcl> source : acls.values()) {
+            writeSource(out, source);
+            writeString(out, source.content.name);
+            out.writeBoolean(source.content.description != null);
+            if (source.content.description != null) {
+                writeString(out, source.content.description);
+            }
+            writeStrings(out, source.content.rows);
+        }
+    }
+
+    private void read(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not an ACL cache of version " + VERSION);
+        }
+
+        if (in.readBoolean()) {
+            String path = readString(in);
+            byte[] hash = readHash(in);
+            LinkedHashMap<String, String> content = new LinkedHashMap<String, String>();
+            for (int n = in.readInt(); n > 0; n--) {
+                content.put(readString(in), readString(in));
+            }
+            permissions = new Source<LinkedHashMap<String, String>>(path, hash, content);
+        }
+
+        if (in.readBoolean()) {
+            String path = readString(in);
+            byte[] hash = readHash(in);
+            LinkedHashMap<String, List<String>> content = new LinkedHashMap<String, List<String>>();
+            for (int n = in.readInt(); n > 0; n--) {
+                content.put(readString(in), readStrings(in));
+            }
+            groups = new Source<LinkedHashMap<String, List<String>>>(path, hash, content);
+        }
+
+        for (int n = in.readInt(); n > 0; n--) {
+            String path = readString(in);
+            byte[] hash = readHash(in);
+            String name = readString(in);
+            String description = in.readBoolean() ? readString(in) : null;
+            ParsedAcl parsed = new ParsedAcl(name, description, readStrings(in));
+            acls.put(path, new Source<ParsedAcl>(path, hash, parsed));
+        }
+    }
+
+    private static void writeSource(DataOutputStream out, Source<?> source) throws IOException {
+        writeString(out, source.path);
+        out.writeInt(source.hash.length);
+        out.write(source.hash);
+    }
+
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("damaged hash length " + length);
+        }
+        byte[] hash = new byte[length];
+        in.readFully(hash);
+        return hash;
+    }
+
+    // writeUTF() is limited to 64 kB, so strings are written as length and UTF-8 bytes
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("damaged string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    static ArrayList<String> readStrings(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > in.available()) {
+            throw new IOException("damaged list size " + n);
+        }
+        ArrayList<String> strings = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+}
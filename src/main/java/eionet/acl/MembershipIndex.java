@@ -0,0 +1,225 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse membership index of one snapshot: for every principal the local
+ * groups and roles it belongs to, directly or through nested groups.
+ * Groups are compared by identity, so a local group and a role with the same
+ * name are kept apart. The index also holds the one RoleImpl per role name that
+ * all ACLs of the snapshot share.
+ * The index is filled while the snapshot is loaded and read by every permission
+ * check. Changes are made one at a time under the index's lock. While loading,
+ * the group set of a member is changed in place; publish() wraps the sets as
+ * unmodifiable. Once published, a set is never modified, a change replaces it,
+ * so reads take no lock.
+ */
+final class MembershipIndex {
+
+    /** Groups and roles by member name; unmodifiable except the ones in loadingSets. */
+    private final ConcurrentHashMap<String, Set<Group>> byMember;
+
+    /** Roles by name. */
+    private final ConcurrentHashMap<String, Group> roles;
+
+    /** Group sets changed in place since the last publish(), by member name. */
+    private final HashMap<String, Set<Group>> loadingSets = new HashMap<String, Set<Group>>();
+
+    /** Set by publish(); from then on changes replace the group sets. */
+    private boolean published = false;
+
+    /**
+     * Creates an empty index.
+     */
+    MembershipIndex() {
+        byMember = new ConcurrentHashMap<String, Set<Group>>();
+        roles = new ConcurrentHashMap<String, Group>();
+    }
+
+    /**
+     * Creates a copy of an index that can be extended without affecting the
+     * original. Published group sets are shared, as they are never modified;
+     * sets still being loaded are copied.
+     */
+    private MembershipIndex(MembershipIndex other) {
+        byMember = new ConcurrentHashMap<String, Set<Group>>(other.byMember);
+        for (Map.Entry<String, Set<Group>> e : other.loadingSets.entrySet()) {
+            Set<Group> groups = newGroupSet();
+            groups.addAll(e.getValue());
+            byMember.put(e.getKey(), Collections.unmodifiableSet(groups));
+        }
+        roles = new ConcurrentHashMap<String, Group>(other.roles);
+    }
+
+    /**
+     * Returns a copy of this index for a snapshot derived from this one.
+     */
+    synchronized MembershipIndex copy() {
+        return new MembershipIndex(this);
+    }
+
+    /**
+     * Wraps the group sets filled while loading as unmodifiable. Called before
+     * the snapshot is published; later changes replace the sets instead of
+     * changing them.
+     */
+    synchronized void publish() {
+        for (Map.Entry<String, Set<Group>> e : loadingSets.entrySet()) {
+            byMember.put(e.getKey(), Collections.unmodifiableSet(e.getValue()));
+        }
+        loadingSets.clear();
+        published = true;
+    }
+
+    /**
+     * Indexes the members of the given groups.
+     *
+     * @param groups local groups
+     */
+    synchronized void addGroups(Collection<Group> groups) {
+        for (Group g : groups) {
+            addGroup(g);
+        }
+    }
+
+    /**
+     * Returns the role of the given name, taking its occupants from the role
+     * registry the first time it is asked for. With lazy role resolution the
+     * role is created without occupants.
+     *
+     * @param roleName role name
+     * @return the role
+     */
+    Group getRole(String roleName) {
+        Group role = roles.get(roleName);
+        if (role != null) {
+            return role;
+        }
+        synchronized (this) {
+            role = roles.get(roleName);
+            if (role == null) {
+                role = new RoleImpl(roleName, AccessController.isLazyRoles()
+                        ? Collections.<String>emptyList() : AccessController.getRoleRegistry().get(roleName));
+                addGroup(role);
+                roles.put(roleName, role);
+            }
+            return role;
+        }
+    }
+
+    /**
+     * Adds roles whose occupants have been read in advance. Roles already in
+     * the index are kept.
+     *
+     * @param occupants user names of the occupants by role name
+     */
+    synchronized void addRoles(Map<String, List<String>> occupants) {
+        for (Map.Entry<String, List<String>> e : occupants.entrySet()) {
+            if (!roles.containsKey(e.getKey())) {
+                Group role = new RoleImpl(e.getKey(), e.getValue());
+                addGroup(role);
+                roles.put(e.getKey(), role);
+            }
+        }
+    }
+
+    /**
+     * Returns true if an ACL of the snapshot has an entry for the role.
+     *
+     * @param roleName role name
+     */
+    boolean hasRole(String roleName) {
+        return roles.containsKey(roleName);
+    }
+
+    /**
+     * Returns the local groups and roles the principal is a member of.
+     *
+     * @param principalName principal name
+     * @return set of groups, compared by identity; empty if none
+     */
+    Set<Group> groupsOf(String principalName) {
+        Set<Group> groups = byMember.get(principalName);
+        return groups == null ? Collections.<Group>emptySet() : groups;
+    }
+
+    private void addGroup(Group g) {
+        addMembers(g, g, newGroupSet());
+    }
+
+    //
+    // Registers the members of 'current' as members of 'group'. Nested
+    // groups are followed, each one only once, so loops are harmless.
+    //
+    private void addMembers(Group group, Group current, Set<Group> seen) {
+        if (!seen.add(current)) {
+            return;
+        }
+        Enumeration<? extends Principal> members = current.members();
+        while (members.hasMoreElements()) {
+            Principal p = members.nextElement();
+            if (p instanceof Group) {
+                addMembers(group, (Group) p, seen);
+            } else {
+                addMember(p.getName(), group);
+            }
+        }
+    }
+
+    private void addMember(String name, Group group) {
+        Set<Group> groups = loadingSets.get(name);
+        if (groups != null) {
+            groups.add(group);
+            return;
+        }
+        Set<Group> before = byMember.get(name);
+        if (before != null && before.contains(group)) {
+            return;
+        }
+        groups = newGroupSet();
+        if (before != null) {
+            groups.addAll(before);
+        }
+        groups.add(group);
+        if (published) {
+            // readers may hold the old set, so the new one is never changed
+            byMember.put(name, Collections.unmodifiableSet(groups));
+        } else {
+            loadingSets.put(name, groups);
+            byMember.put(name, groups);
+        }
+    }
+
+    private static Set<Group> newGroupSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.util.ArrayList;
+
+/**
+ * Contents of an ACL file before they are applied to an AccessControlList:
+ * the description and the entry rows in the plain text format. Parsing needs
+ * no groups, permissions or other ACLs, so files can be parsed on any thread.
+ */
+final class ParsedAcl {
+
+    /** ACL path, like "/whatever". */
+    final String name;
+
+    /** Description from the file, or null if the format has none. */
+    final String description;
+
+    /** Entry rows like "user:john:v,i" or "localgroup:admins:v,c:doc". */
+    final ArrayList<String> rows;
+
+    ParsedAcl(String name, String description, ArrayList<String> rows) {
+        this.name = name;
+        this.description = description;
+        this.rows = rows;
+    }
+}
@@ -24,10 +24,12 @@ package eionet.acl;
 
 import java.sql.SQLException;
 import java.security.Principal;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface for persistence layer.
@@ -93,6 +95,42 @@ public interface Persistence {
      */
     void initAcls(HashMap<String, AccessControlListIF> acls) throws SQLException, SignOnException;
 
+    /**
+     * Starts the part of reading the ACLs that doesn't depend on groups and
+     * permissions, so that it runs while those are being read. Called right
+     * before a full reload; the next initAcls() uses the result.
+     *
+     * @throws SignOnException if the ACLs cannot be located
+     */
+    default void prefetchAcls() throws SignOnException {
+    }
+
+    /**
+     * Returns the names of the roles the ACLs have entries for, so that their
+     * occupants can be read before the ACLs are built. Called after prefetchAcls().
+     *
+     * @return role names; empty if they aren't known before the ACLs are read
+     * @throws SQLException if error in reading from database
+     * @throws SignOnException if the ACLs cannot be read
+     */
+    default Set<String> readRoleNames() throws SQLException, SignOnException {
+        return Collections.<String>emptySet();
+    }
+
+    /**
+     * Reads a single ACL. Used to refresh one ACL after it has been created or
+     * written instead of reloading all of them. The ACL is bound to the snapshot
+     * AccessController is currently building.
+     *
+     * @param aclPath full ACL path
+     * @return the ACL, or null if this persistence layer cannot read it on its own
+     * @throws SQLException if error in reading from database
+     * @throws SignOnException if error in ACL configuration etc
+     */
+    default AccessControlListIF readAcl(String aclPath) throws SQLException, SignOnException {
+        return null;
+    }
+
     /**
      * Stores ACL Rows in the DB table.
      * @param aclName full ACL path
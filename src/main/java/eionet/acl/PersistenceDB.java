@@ -26,18 +26,23 @@ import eionet.acl.impl.AclImpl;
 import eionet.acl.impl.PrincipalImpl;
 import java.security.Principal;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import javax.naming.InitialContext;
 import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
@@ -54,15 +59,28 @@ public class PersistenceDB implements Persistence {
      */
     private static final Logger LOGGER = Logger.getLogger(PersistenceDB.class);
 
+    /** Rows fetched per round trip when reading all ACLs. */
+    private static final int FETCH_SIZE = 1000;
+
     DataSource dataSource = null;
+    /** Used if there is no dataSource. */
+    private ConnectionPool connectionPool = null;
     String dbUrl, dbDriver, dbUser, dbPwd;
 
     PersistenceDB() throws DbNotSupportedException {
         try {
-            dbUrl = AccessController.getAclProperties().getDbUrl();
-            dbDriver = AccessController.getAclProperties().getDbDriver();
-            dbUser = AccessController.getAclProperties().getDbUser();
-            dbPwd = AccessController.getAclProperties().getDbPwd();
+            AclProperties props = AccessController.getAclProperties();
+            dbUrl = props.getDbUrl();
+            dbDriver = props.getDbDriver();
+            dbUser = props.getDbUser();
+            dbPwd = props.getDbPwd();
+            if (props.getDataSource() != null) {
+                dataSource = props.getDataSource();
+            } else if (!StringUtils.isBlank(props.getDbJndiName())) {
+                dataSource = (DataSource) new InitialContext().lookup(props.getDbJndiName());
+            } else if (dbDriver != null) {
+                connectionPool = new ConnectionPool(dbDriver, dbUrl, dbUser, dbPwd, props.getDbPoolSize());
+            }
             checkAclTables();
         } catch (DbNotSupportedException dbne) {
             LOGGER.info("Database Not supported " + dbne);
@@ -85,7 +103,7 @@ public class PersistenceDB implements Persistence {
      */
     private void checkAclTables() throws SQLException, DbNotSupportedException {
 
-        if (dbDriver == null && dataSource == null) {
+        if (connectionPool == null && dataSource == null) {
             throw new SQLException("No Database Connection");
         }
 
@@ -139,42 +157,62 @@ public class PersistenceDB implements Persistence {
 
         AccessControlListIF parentAcl = AccessController.getAcl(parentName);
 
-        description = description == null ? "" : description;
-
-        String sql = "INSERT INTO ACLS (ACL_NAME, PARENT_NAME, OWNER, DESCRIPTION) VALUES('" + aclName + "', '" + parentName
-                + "','" + owner + "', '" + description + "')";
-
-        executeUpdate(sql);
-
-        List<HashMap<String, String>> dccEntries = parentAcl.getDOCAndDCCEntries();
+        final String descr = description == null ? "" : description;
 
-        //just added ACL id
-        String aclId = getMaxAclId();
+        // copy, the default entries added below must not end up in the parent ACL
+        final List<HashMap<String, String>> dccEntries = new ArrayList<HashMap<String, String>>(parentAcl.getDOCAndDCCEntries());
 
-        processDocAndDccEntries(aclId, dccEntries, owner, isFolder);
+        inTransaction(con -> {
+            int aclId;
+            PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO ACLS (ACL_NAME, PARENT_NAME, OWNER, DESCRIPTION) VALUES (?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            try {
+                ps.setString(1, aclName);
+                ps.setString(2, parentName);
+                ps.setString(3, owner);
+                ps.setString(4, descr);
+                ps.executeUpdate();
+
+                //just added ACL id
+                ResultSet keys = ps.getGeneratedKeys();
+                try {
+                    if (!keys.next()) {
+                        throw new SQLException("No ACL_ID generated for ACL " + aclPath);
+                    }
+                    aclId = keys.getInt(1);
+                } finally {
+                    keys.close();
+                }
+            } finally {
+                ps.close();
+            }
 
+            insertAclRows(con, aclId, docAndDccRows(dccEntries, owner, isFolder));
+            return null;
+        });
     }
 
     /**
-     * special handling for DOC and DDC entries.
+     * special handling for DOC and DDC entries. The ACL is new, so its rows are
+     * put together here and inserted in one batch.
      *
-     * @param aclId ACL ID
      * @param docAndDccEntries list of DOC and DCC entries
      * @param owner ACL owner
      * @param isFolder true if can have sub-folders
-     * @throws SQLException if inserts fail
+     * @return rows as {ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS}
      */
-    private void processDocAndDccEntries(String aclId, List<HashMap<String, String>> docAndDccEntries, String owner,
-            boolean isFolder) throws SQLException {
-
-        String sql;
+    private List<String[]> docAndDccRows(List<HashMap<String, String>> docAndDccEntries, String owner,
+            boolean isFolder) {
 
         // {ENTRY_TYPE=doc, PERMISSIONS=d,u,c, PRINCIPAL=owner, TYPE=U}
         // if a user is a DOC ACL and she is the owner as well only the owner permissions are granted!!
         // add default DCC entry if no DCC entries:
         createDefaultDCCEntries(docAndDccEntries, isFolder);
 
-        // if (docAndDccEntries.size() > 0) {
+        List<String[]> rows = new ArrayList<String[]>();
+        // object rows by ENTRY_TYPE, TYPE and PRINCIPAL
+        LinkedHashMap<String, String[]> objectRows = new LinkedHashMap<String, String[]>();
         HashMap<String, String> ownerE = null;
 
         for (HashMap<String, String> aclEntry : docAndDccEntries) {
@@ -187,10 +225,7 @@ public class PersistenceDB implements Persistence {
 
             // first copy the DCC or DOC entry to the ACL if folders are supported:
             if (isFolder) {
-                sql
-                        = "INSERT INTO ACL_ROWS (ACL_ID, ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS) "
-                        + " VALUES (" + aclId + ", '" + type + "','" + eType + "','" + eName + "','" + permissions + "', 1)";
-                executeUpdate(sql);
+                rows.add(new String[] {type, eType, eName, permissions});
             }
 
             // it is DCC ACL but we are adding a regular ACL row so the permissions are for object:
@@ -203,46 +238,25 @@ public class PersistenceDB implements Persistence {
             if (eName.equals("owner") && type.equals("user")) {
                 ownerE = aclEntry;
             } else {
-                // check if this already exists:
-                String entryPermissions = getEntryPermissions(aclId, eType, type, eName);
-
-                if (entryPermissions == null) {
-                    // TODO - change type and entry_type
-                    sql
-                            = "INSERT INTO ACL_ROWS (ACL_ID, ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS) "
-                            + " VALUES (" + aclId + ", '" + type + "','" + eType + "','" + eName + "','" + permissions + "', 1)";
+                String key = type + ":" + eType + ":" + eName;
+                String[] row = objectRows.get(key);
+                if (row == null) {
+                    objectRows.put(key, new String[] {type, eType, eName, permissions});
                 } else {
-                    entryPermissions = mergePermissions(entryPermissions, permissions);
-                    sql
-                            = "UPDATE ACL_ROWS SET PERMISSIONS = '" + entryPermissions + "' WHERE ACL_ID=" + aclId
-                            + " AND ENTRY_TYPE='" + type + "' AND TYPE='" + eType + "' AND PRINCIPAL='" + eName + "'";
+                    row[3] = mergePermissions(row[3], permissions);
                 }
-                executeUpdate(sql);
             }
         }
 
         // if there is an owner DOC ACL entry, process it:
+        // NB If the owner already has a row we take only OWNER DOC permissions into account and ignore the rest
+        // (given by regular ACL entries)
         if (ownerE != null) {
-            // check if the owner user already exists in ACL ROWS:
-            // NB If it does we take only OWNER DOC permissions into account and ignore the rest (given by regular ACL entries)
-            sql
-                    = "SELECT PERMISSIONS FROM ACL_ROWS " + " WHERE ACL_ID = " + aclId + " AND ENTRY_TYPE='user' AND "
-                    + " TYPE='object' AND PRINCIPAL ='" + owner + "'";
-            String[][] r = executeStringQuery(sql);
-            if (r.length == 0) { // not existing
-                sql
-                        = "INSERT INTO ACL_ROWS (ACL_ID, ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS) "
-                        + " VALUES (" + aclId + ", 'user','object','" + owner + "','" + ownerE.get("PERMISSIONS") + "', 1)";
-
-            } else { // exists, replace the PERMISSIONS
-                sql
-                        = "UPDATE ACL_ROWS SET PERMISSIONS='" + ownerE.get("PERMISSIONS") + "'" + " WHERE ACL_ID = " + aclId
-                        + " AND ENTRY_TYPE='user' AND " + " TYPE='object' AND PRINCIPAL ='" + owner + "'";
-            }
-
-            executeUpdate(sql);
-        }
-        // }
+            objectRows.put("user:object:" + owner, new String[] {"user", "object", owner, ownerE.get("PERMISSIONS")});
+        }
+
+        rows.addAll(objectRows.values());
+        return rows;
     }
 
     /**
@@ -298,23 +312,18 @@ public class PersistenceDB implements Persistence {
         }
 
         //get the aprent ACl and see if it has DOC entry rows
-        String parentName = (lastSlash == 0 ? "/" : aclPath.substring(0, lastSlash));
-        String aclName = aclPath.substring(lastSlash + 1);
+        final String parentName = (lastSlash == 0 ? "/" : aclPath.substring(0, lastSlash));
+        final String aclName = aclPath.substring(lastSlash + 1);
 
-        String sql = "SELECT ACL_ID FROM ACLS WHERE PARENT_NAME='" + parentName + "' AND ACL_NAME='" + aclName + "'";
-
-        String[][] r = executeStringQuery(sql);
-        String aclId = null;
-
-        if (r.length == 0) {
-            throw new SignOnException("No such ACL " + aclPath);
-        } else {
-            aclId = r[0][0];
-            sql = "DELETE FROM ACL_ROWS WHERE ACL_ID=" + aclId;
-            executeUpdate(sql);
-            sql = "DELETE FROM ACLS WHERE ACL_ID=" + aclId;
-            executeUpdate(sql);
-        }
+        inTransaction(con -> {
+            int aclId = getAclId(con, parentName, aclName);
+            if (aclId == -1) {
+                throw new SignOnException("No such ACL " + aclPath);
+            }
+            executeUpdate(con, "DELETE FROM ACL_ROWS WHERE ACL_ID=?", aclId);
+            executeUpdate(con, "DELETE FROM ACLS WHERE ACL_ID=?", aclId);
+            return null;
+        });
     }
 
     @Override
@@ -342,11 +351,8 @@ public class PersistenceDB implements Persistence {
             throw new SignOnException("Parent names are not equal");
         }
 
-        String sql = "UPDATE ACLS SET acl_name = '" + newAclName
-                + "' WHERE PARENT_NAME='" + parentName + "' AND ACL_NAME='" + aclName + "'";
-
-        executeUpdate(sql);
-
+        inTransaction(con -> executeUpdate(con, "UPDATE ACLS SET ACL_NAME=? WHERE PARENT_NAME=? AND ACL_NAME=?",
+                newAclName, parentName, aclName));
     }
 
     private String[][] executeStringQuery(String sql) throws SQLException {
@@ -430,8 +436,7 @@ public class PersistenceDB implements Persistence {
             if (dataSource != null) {
                 con = dataSource.getConnection();
             } else {
-                Class.forName(dbDriver);
-                con = DriverManager.getConnection(dbUrl, dbUser, dbPwd);
+                con = connectionPool.getConnection();
             }
         } catch (Throwable t) {
             //set global variable to false to make the AccessController to read ACLS from the database until it is fixed
@@ -442,53 +447,204 @@ public class PersistenceDB implements Persistence {
         return con;
     }
 
-    private int executeUpdate(String sql) throws SQLException {
-        Connection con = null; // Connection object
-        Statement stmt = null; // Statement object
-        int rval = 0;          // Return value
-        // Get connection object
-        con = getConnection();
+    /**
+     * Unit of work that runs on the connection of a transaction.
+     */
+    private interface Transaction<T> {
+        T run(Connection con) throws SQLException, SignOnException;
+    }
 
-        // Create statement object
+    /**
+     * Runs the work in one JDBC transaction. It is committed if the work
+     * completes and rolled back if it throws.
+     *
+     * @param work statements to execute
+     * @return what the work returns
+     * @throws SQLException if a statement or the commit fails
+     * @throws SignOnException if the work throws it
+     */
+    private <T> T inTransaction(Transaction<T> work) throws SQLException, SignOnException {
+        Connection con = getConnection();
         try {
-            stmt = con.createStatement();
-        } catch (SQLException e) {
-            // Error handling
-            //   logger.error( "UpdateStatement failed: " + e.toString());
-            // Free resources
+            con.setAutoCommit(false);
+            T result = work.run(con);
+            con.commit();
+            return result;
+        } catch (SQLException | SignOnException | RuntimeException e) {
+            try {
+                con.rollback();
+            } catch (SQLException re) {
+                LOGGER.error("Rollback failed " + re);
+            }
+            throw e;
+        } finally {
             try {
-                close(con, stmt, null);
-            } catch (Throwable exc) {
-                throw new SQLException("_close() failed: " + sql);
+                con.setAutoCommit(true);
+                con.close();
+            } catch (SQLException e) {
+                LOGGER.error("Error in closing connection " + e);
             }
-            //logger.error("Connection.createStatement() failed: " + sql_stmt,e);
-            throw new SQLException("Update failed: " + sql);
         }
+    }
 
-        // Execute update
+    private static int executeUpdate(Connection con, String sql, Object... params) throws SQLException {
+        LOGGER.debug("SQL " + sql);
+        PreparedStatement ps = con.prepareStatement(sql);
         try {
-            LOGGER.debug("SQL " + sql);
-            rval = stmt.executeUpdate(sql);
-        } catch (Exception e) {
-            // Error handling
-            throw new SQLException("Statement.executeUpdate(" + sql + ") failed" + e.getMessage());
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            return ps.executeUpdate();
         } finally {
-            // Free resources
-            close(con, stmt, null);
+            ps.close();
         }
-        // Success
-        return rval;
     }
 
-    private String getMaxAclId() throws SQLException {
-        String sql = "SELECT MAX(ACL_ID) FROM ACLS ";
-        String[][] ret = executeStringQuery(sql);
+    /**
+     * Inserts ACL rows with one batch.
+     *
+     * @param con connection of the transaction
+     * @param aclId ACL ID
+     * @param rows rows as {ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS}
+     * @throws SQLException if the insert fails
+     */
+    private static void insertAclRows(Connection con, int aclId, List<String[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        PreparedStatement ps = con.prepareStatement(
+                "INSERT INTO ACL_ROWS (ACL_ID, ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS) VALUES (?, ?, ?, ?, ?, 1)");
+        try {
+            for (String[] row : rows) {
+                ps.setInt(1, aclId);
+                ps.setString(2, row[0]);
+                ps.setString(3, row[1]);
+                ps.setString(4, row[2]);
+                ps.setString(5, row[3]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
 
-        if (ret.length > 0) {
-            return ret[0][0];
+    /**
+     * Brings the stored rows of an ACL in line with the given rows. Rows that
+     * are gone are deleted, rows with other permissions are updated and new
+     * rows are inserted. Nothing is written if the rows are the same.
+     *
+     * @param con connection of the transaction
+     * @param aclId ACL ID
+     * @param rows new rows as {ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS}
+     * @throws SQLException if reading or writing fails
+     */
+    private static void updateAclRows(Connection con, int aclId, List<String[]> rows) throws SQLException {
+        // stored rows by ENTRY_TYPE, TYPE and PRINCIPAL
+        HashMap<List<String>, String> stored = new HashMap<List<String>, String>();
+        // keys stored more than once, left over by an interrupted write; these are rewritten
+        List<List<String>> duplicates = new ArrayList<List<String>>();
+        PreparedStatement ps = con.prepareStatement(
+                "SELECT ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS FROM ACL_ROWS WHERE ACL_ID=?");
+        try {
+            ps.setInt(1, aclId);
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    List<String> key = Arrays.asList(rs.getString(1), rs.getString(2), rs.getString(3));
+                    if (stored.put(key, rs.getString(4)) != null) {
+                        duplicates.add(key);
+                    }
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            ps.close();
+        }
+
+        LinkedHashMap<List<String>, String[]> wanted = new LinkedHashMap<List<String>, String[]>();
+        for (String[] row : rows) {
+            wanted.put(Arrays.asList(row[0], row[1], row[2]), row);
+        }
+
+        List<List<String>> deletes = new ArrayList<List<String>>(duplicates);
+        for (List<String> key : stored.keySet()) {
+            if (!wanted.containsKey(key)) {
+                deletes.add(key);
+            }
+        }
+        List<String[]> updates = new ArrayList<String[]>();
+        List<String[]> inserts = new ArrayList<String[]>();
+        for (Map.Entry<List<String>, String[]> e : wanted.entrySet()) {
+            if (duplicates.contains(e.getKey()) || !stored.containsKey(e.getKey())) {
+                inserts.add(e.getValue());
+            } else if (!StringUtils.equals(stored.get(e.getKey()), e.getValue()[3])) {
+                updates.add(e.getValue());
+            }
         }
 
-        return null;
+        if (deletes.isEmpty() && updates.isEmpty() && inserts.isEmpty()) {
+            LOGGER.debug("ACL_ID=" + aclId + " unchanged, nothing to save");
+            return;
+        }
+        LOGGER.debug("ACL_ID=" + aclId + ": " + deletes.size() + " rows to delete, " + updates.size()
+                + " to update, " + inserts.size() + " to insert");
+
+        if (!deletes.isEmpty()) {
+            ps = con.prepareStatement("DELETE FROM ACL_ROWS WHERE ACL_ID=? AND ENTRY_TYPE=? AND TYPE=? AND PRINCIPAL=?");
+            try {
+                for (List<String> key : deletes) {
+                    ps.setInt(1, aclId);
+                    ps.setString(2, key.get(0));
+                    ps.setString(3, key.get(1));
+                    ps.setString(4, key.get(2));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+        }
+        if (!updates.isEmpty()) {
+            ps = con.prepareStatement(
+                    "UPDATE ACL_ROWS SET PERMISSIONS=? WHERE ACL_ID=? AND ENTRY_TYPE=? AND TYPE=? AND PRINCIPAL=?");
+            try {
+                for (String[] row : updates) {
+                    ps.setString(1, row[3]);
+                    ps.setInt(2, aclId);
+                    ps.setString(3, row[0]);
+                    ps.setString(4, row[1]);
+                    ps.setString(5, row[2]);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+        }
+        insertAclRows(con, aclId, inserts);
+    }
+
+    /**
+     * Returns the ID of an ACL.
+     *
+     * @return ACL_ID or -1 if there is no such ACL
+     */
+    private static int getAclId(Connection con, String parentName, String aclName) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("SELECT ACL_ID FROM ACLS WHERE PARENT_NAME=? AND ACL_NAME=?");
+        try {
+            ps.setString(1, parentName);
+            ps.setString(2, aclName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next() ? rs.getInt(1) : -1;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            ps.close();
+        }
     }
 
     //TODO this is code duplication also in AccesscontrolList class
@@ -507,30 +663,113 @@ public class PersistenceDB implements Persistence {
     @Override
     public void initAcls(HashMap<String, AccessControlListIF> acls) throws SQLException, SignOnException {
 
-        String sql = "SELECT ACL_ID, ACL_NAME, PARENT_NAME, DESCRIPTION, OWNER FROM ACLS";
+        // one pass over all ACLs and their rows, grouped by ACL_ID while reading
+        String sql = "SELECT A.ACL_ID, A.ACL_NAME, A.PARENT_NAME, A.DESCRIPTION, A.OWNER,"
+                + " R.TYPE, R.ENTRY_TYPE, R.PRINCIPAL, R.PERMISSIONS"
+                + " FROM ACLS A LEFT JOIN ACL_ROWS R ON R.ACL_ID = A.ACL_ID"
+                + " ORDER BY A.ACL_ID, R.TYPE, R.ENTRY_TYPE, R.PRINCIPAL";
 
-        String[][] r = null;
-        r = executeStringQuery(sql);
-        for (int i = 0; i < r.length; i++) {
-            String aclId = r[i][0];
-            String aclName = r[i][2] + (r[i][2].equals("/") ? "" : "/") + r[i][1];
-            String description = r[i][3];
-            String owner = r[i][4];
+        Connection con = getConnection();
+        Statement stmt = null;
+        ResultSet rset = null;
+        try {
+            stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(FETCH_SIZE);
+            rset = stmt.executeQuery(sql);
 
-            sql = "SELECT TYPE, ENTRY_TYPE, PRINCIPAL, PERMISSIONS FROM ACL_ROWS WHERE ACL_ID=" + aclId;
-            String[][] aclRows = executeStringQuery(sql);
+            String aclId = null;
+            String aclName = null;
+            String description = null;
+            String owner = null;
+            ArrayList<String> aRows = new ArrayList<String>();
 
-            AccessControlList acl = readAclDB(aclName, owner, description, aclRows);
+            while (rset.next()) {
+                String rowAclId = rset.getString(1);
+                if (!rowAclId.equals(aclId)) {
+                    if (aclId != null) {
+                        acls.put(aclName, readAclDB(aclName, owner, description, aRows));
+                        aRows = new ArrayList<String>();
+                    }
+                    aclId = rowAclId;
+                    String parentName = rset.getString(3);
+                    aclName = parentName + (parentName.equals("/") ? "" : "/") + rset.getString(2);
+                    description = rset.getString(4);
+                    owner = rset.getString(5);
+                }
+                // no rows for the ACL gives one row of NULLs
+                String type = rset.getString(6);
+                if (type != null) {
+                    aRows.add(toAclRow(type, rset.getString(7), rset.getString(8), rset.getString(9)));
+                }
+            }
+            if (aclId != null) {
+                acls.put(aclName, readAclDB(aclName, owner, description, aRows));
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error occurred when processing result set: " + sql, e);
+            throw new SQLException("Error occurred when processing result set: " + sql, e);
+        } finally {
+            close(con, stmt, rset);
+        }
+    }
 
-            acls.put(aclName, acl);
+    @Override
+    public Set<String> readRoleNames() throws SQLException, SignOnException {
+        Set<String> names = new HashSet<String>();
+        for (String[] row : executeStringQuery(
+                "SELECT DISTINCT PRINCIPAL FROM ACL_ROWS WHERE ENTRY_TYPE='circarole'")) {
+            names.add(row[0]);
         }
+        return names;
+    }
+
+    @Override
+    public AccessControlListIF readAcl(String aclPath) throws SQLException, SignOnException {
+        int lastSlash = aclPath.lastIndexOf("/");
+        if (lastSlash == -1 || aclPath.equals("/")) {
+            return null;
+        }
+
+        String parentName = (lastSlash == 0 ? "/" : aclPath.substring(0, lastSlash));
+        String aclName = aclPath.substring(lastSlash + 1);
+
+        Connection con = getConnection();
+        PreparedStatement ps = null;
+        ResultSet rset = null;
+        try {
+            int aclId = getAclId(con, parentName, aclName);
+            if (aclId == -1) {
+                return null;
+            }
+
+            ps = con.prepareStatement("SELECT A.DESCRIPTION, A.OWNER,"
+                    + " R.TYPE, R.ENTRY_TYPE, R.PRINCIPAL, R.PERMISSIONS"
+                    + " FROM ACLS A LEFT JOIN ACL_ROWS R ON R.ACL_ID = A.ACL_ID WHERE A.ACL_ID=?");
+            ps.setInt(1, aclId);
+            rset = ps.executeQuery();
 
+            String description = null;
+            String owner = null;
+            ArrayList<String> aRows = new ArrayList<String>();
+            while (rset.next()) {
+                description = rset.getString(1);
+                owner = rset.getString(2);
+                // no rows for the ACL gives one row of NULLs
+                String type = rset.getString(3);
+                if (type != null) {
+                    aRows.add(toAclRow(type, rset.getString(4), rset.getString(5), rset.getString(6)));
+                }
+            }
+            return readAclDB(aclPath, owner, description, aRows);
+        } finally {
+            close(con, ps, rset);
+        }
     }
 
     /**
      * Construct ACL from the database query.
      */
-    private AccessControlList readAclDB(String name, String ownerName, String description, String[][] aclRows)
+    private AccessControlList readAclDB(String name, String ownerName, String description, ArrayList<String> aRows)
             throws SignOnException {
         AccessControlList acl = new AccessControlList(this);
 
@@ -546,37 +785,27 @@ public class PersistenceDB implements Persistence {
         acl.description = description;
         acl.name = name;
 
-        readAclRowsFromDb(aclRows, acl);
+        acl.processAclRows(aRows);
         return acl;
     }
 
     /**
-     * Parse ACL rows originating from Database.
+     * Transform one row of ACL_ROWS to the format of text files.
      */
-    private void readAclRowsFromDb(String[][] aclRows, AccessControlList acl) throws SignOnException {
-        ArrayList<String> aRows = new ArrayList<String>();
-        //transform the String to an arraylist similar to text files
-        for (int i = 0; i < aclRows.length; i++) {
-            String type = aclRows[i][0];
-            String eType = aclRows[i][1];
-            String principal = aclRows[i][2];
-            String perms = aclRows[i][3];
-
-            if (eType.equals("authenticated") || eType.equals("anonymous")) {
-                principal = eType;
-                eType = "user";
-            }
-            if (eType.equals("owner")) {
-                eType = "user"; //not supported yet
-            }
-            String aRow = eType + ":" + principal + ":" + perms;
+    private static String toAclRow(String type, String eType, String principal, String perms) {
+        if (eType.equals("authenticated") || eType.equals("anonymous")) {
+            principal = eType;
+            eType = "user";
+        }
+        if (eType.equals("owner")) {
+            eType = "user"; //not supported yet
+        }
+        String aRow = eType + ":" + principal + ":" + perms;
 
-            if (!type.equalsIgnoreCase("object")) {
-                aRow = aRow + ":" + type;
-            }
-            aRows.add(aRow);
+        if (!type.equalsIgnoreCase("object")) {
+            aRow = aRow + ":" + type;
         }
-        acl.processAclRows(aRows);
+        return aRow;
     }
 
     /**
@@ -592,7 +821,10 @@ public class PersistenceDB implements Persistence {
     @Override
     public void writeAcl(final String aclName, Map<String, String> aclAttrs, List aclEntries) throws SignOnException {
 
-        ArrayList<String> aclEntriesAsRows = aclEntriesToFileRows(aclEntries);
+        if (aclEntries == null) {
+            throw new SignOnException("No ACL entries given for ACL=" + aclName);
+        }
+        final List<String[]> rows = fileRowsToDbRows(aclEntriesToFileRows(aclEntries));
         // split parent and acl name
         String parentName = null;
         String leafName = null;
@@ -605,41 +837,19 @@ public class PersistenceDB implements Persistence {
                 leafName = aclName.substring(aclName.lastIndexOf("/") + 1);
             }
         }
+        final String parent = parentName;
+        final String leaf = leafName;
 
+        // only the rows that differ from the stored ones are written, in one transaction
         try {
-            String sql = "SELECT ACL_ID, ACL_NAME, DESCRIPTION FROM ACLS WHERE ACL_NAME='"
-                    + leafName + "' AND " + " PARENT_NAME='" + parentName + "'";
-
-            String aclId;
-            String[][] r = executeStringQuery(sql);
-            if (r.length == 0) {
-                throw new SignOnException("No such ACL=" + aclName);
-            } else {
-                aclId = r[0][0];
-            }
-
-            // update status -> backup rows
-            sql = "UPDATE ACL_ROWS SET STATUS='0' WHERE ACL_ID=" + aclId;
-            executeUpdate(sql);
-            LOGGER.debug("Backup done, entries in the ACL " + r.length);
-            // process rows in the list, add into DB
-            try {
-                LOGGER.debug("Going to save entries, size " + aclEntriesAsRows.size());
-                for (int i = 0; i < aclEntriesAsRows.size(); i++) {
-                    saveAclEntry(aclId, aclEntriesAsRows.get(i));
+            inTransaction(con -> {
+                int aclId = getAclId(con, parent, leaf);
+                if (aclId == -1) {
+                    throw new SignOnException("No such ACL=" + aclName);
                 }
-            } catch (Exception e) {
-                //recover old rows
-                sql = "DELETE FROM ACL_ROWS WHERE STATUS='1' AND ACL_ID=" + aclId;
-                executeUpdate(sql);
-                sql = "UPDATE ACL_ROWS SET STATUS='1' WHERE ACL_ID=" + aclId;
-                executeUpdate(sql);
-                throw new SignOnException("Failed to save acl entry for ACL_ID=" + aclId + ", " + e.toString());
-            }
-
-            // success, delete old rows, change status of new ones
-            sql = "DELETE FROM ACL_ROWS WHERE STATUS='0' AND ACL_ID=" + aclId;
-            executeUpdate(sql);
+                updateAclRows(con, aclId, rows);
+                return null;
+            });
         } catch (SQLException e) {
             throw new SignOnException("Failed to save acl entry for ACL_ID=" + aclName + ", " + e.toString());
         }
@@ -683,63 +893,40 @@ public class PersistenceDB implements Persistence {
     }
 
     /**
+     * Converts rows of the plain text format to database rows. Descriptions are
+     * skipped, they are held in ACL text files only.
      *
-     * @param aclId
-     * @param aclE
-     * @throws SQLException
+     * @param aclRows rows like "user:john:rwx:doc"
+     * @return rows as {ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS}
      */
-    private void saveAclEntry(String aclId, String aclE) throws SQLException {
-
-        //first colon
-        int firstC = aclE.indexOf(":");
-        //each aclRow has at least 2 colons
-        int secondC = aclE.indexOf(":", firstC + 1);
-
-        //if the type is added into end there is the 3rd colon
-        int thirdC = aclE.indexOf(":", secondC + 1);
-
-        String eType = aclE.substring(0, firstC);
-        String eName = aclE.substring(firstC + 1, secondC);
-        String ePerms;
-        String aclType = "object"; //default
-        if (thirdC != -1) {
-            ePerms = aclE.substring(secondC + 1, thirdC);
-            aclType = aclE.substring(thirdC + 1);
-        } else {
-            ePerms = aclE.substring(secondC + 1);
-        }
-
-        //ignore "description" because we hold descriptions in ACL text files only
-        if (!eType.equals("description")) {
-            String sql = "INSERT INTO ACL_ROWS (ACL_ID, ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS) "
-                    + " VALUES (" + aclId + ", '" + eType + "','" + aclType + "','" + eName + "','" + ePerms + "', 1)";
-            executeUpdate(sql);
-        }
-    }
-
-    /**
-     * Checks if entry already exists.
-     *
-     * @param aclId acl id
-     * @param entryType entry type
-     * @param principalType principal type
-     * @param principalName principal name
-     * @return CSV entry permissions
-     */
-    private String getEntryPermissions(String aclId, String entryType, String principalType,
-            String principalName) throws SQLException {
-        //NB type and entry_type are SWITCHED in the DB
-        String sql = "SELECT PERMISSIONS FROM ACL_ROWS WHERE ACL_ID = " + aclId + " AND ENTRY_TYPE='" + principalType + "' AND "
-                + " TYPE='" + entryType + "' AND PRINCIPAL ='" + principalName + "'";
-
-        String[][] r = executeStringQuery(sql);
+    private static List<String[]> fileRowsToDbRows(List<String> aclRows) {
+        List<String[]> rows = new ArrayList<String[]>(aclRows.size());
+        for (String aclE : aclRows) {
+            //first colon
+            int firstC = aclE.indexOf(":");
+            //each aclRow has at least 2 colons
+            int secondC = aclE.indexOf(":", firstC + 1);
+
+            //if the type is added into end there is the 3rd colon
+            int thirdC = aclE.indexOf(":", secondC + 1);
+
+            String eType = aclE.substring(0, firstC);
+            String eName = aclE.substring(firstC + 1, secondC);
+            String ePerms;
+            String aclType = "object"; //default
+            if (thirdC != -1) {
+                ePerms = aclE.substring(secondC + 1, thirdC);
+                aclType = aclE.substring(thirdC + 1);
+            } else {
+                ePerms = aclE.substring(secondC + 1);
+            }
 
-        if (r.length > 0) {
-            return r[0][0];
-        } else {
-            return null;
+            //ignore "description" because we hold descriptions in ACL text files only
+            if (!eType.equals("description")) {
+                rows.add(new String[] {eType, aclType, eName, ePerms});
+            }
         }
-
+        return rows;
     }
 
     /**
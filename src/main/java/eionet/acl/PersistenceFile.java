@@ -27,10 +27,18 @@ import java.io.File;
 import java.security.Principal;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import eionet.acl.impl.AclImpl;
 import eionet.acl.impl.PrincipalImpl;
 
@@ -66,6 +74,26 @@ public class PersistenceFile implements Persistence {
      */
     private AclFileReader fileReader;
 
+    /**
+     * ACL files are read and parsed on several threads once there are at least this many.
+     */
+    static final int PARALLEL_PARSE_THRESHOLD = 16;
+
+    /**
+     * Parsing started by prefetchAcls(), taken over by the next initAcls().
+     */
+    private List<Future<AclFileManifest.Entry>> prefetched;
+
+    /**
+     * Cache of the file contents, null if no cache file is configured.
+     */
+    private FileModelCache cache;
+
+    /**
+     * What the last load read from the files, to skip unchanged files on reload.
+     */
+    private final AclFileManifest manifest = new AclFileManifest();
+
     /**
      * Constructor.
      */
@@ -82,7 +110,15 @@ public class PersistenceFile implements Persistence {
             java.util.logging.Logger.getLogger(AccessController.class.getName()).severe(ex.getMessage());
         }
         fileReader = new AclFileReader();
-        
+
+        String cacheFileName = AccessController.getAclProperties().getFileCache();
+        if (cacheFileName != null && cacheFileName.trim().length() > 0) {
+            cache = FileModelCache.open(new File(cacheFileName.trim()));
+        }
+
+        if (AccessController.getAclProperties().isFileWatch()) {
+            AclFileWatcher.start(aclsFolderName, localgroupsFileName, permissionsFileName);
+        }
     }
 
     /**
@@ -93,19 +129,23 @@ public class PersistenceFile implements Persistence {
     @Override
     public void readPermissions(HashMap<String, Permission> permissions, Hashtable<String, String> prmDescrs)
             throws SignOnException {
-        try {
-            if (XmlFileReaderWriter.isXmlFileWannabe(permissionsFileName)) {
-                XmlFileReaderWriter.readPermissions(permissionsFileName, permissions, prmDescrs);
+        byte[] content = readContent(permissionsFileName);
+        byte[] hash = AclFileManifest.hash(content);
+        if (manifest.readPermissions(hash, permissions, prmDescrs)) {
+            return;
+        }
+        File file = new File(permissionsFileName);
+        if (cache == null || !cache.readPermissions(file, hash, permissions, prmDescrs)) {
+            if (XmlFileReaderWriter.isXmlContent(content)) {
+                XmlFileReaderWriter.readPermissions(content, permissionsFileName, permissions, prmDescrs);
             } else {
-                fileReader.readPermissions(permissionsFileName, permissions, prmDescrs);
+                fileReader.readPermissions(AclFileReader.readRows(content), permissions, prmDescrs);
             }
-        } catch (IOException e) {
-            if (e instanceof java.io.FileNotFoundException) {
-                throw new SignOnException(e, "No such file: " + localgroupsFileName);
-            } else {
-                throw new SignOnException(e, "I/O error reading file: " + localgroupsFileName);
+            if (cache != null) {
+                cache.putPermissions(file, hash, permissions, prmDescrs);
             }
         }
+        manifest.putPermissions(hash, permissions, prmDescrs);
     }
 
     /**
@@ -114,17 +154,38 @@ public class PersistenceFile implements Persistence {
      */
     @Override
     public void readGroups(HashMap<String, Group> groups, HashMap<String, Principal> users) throws SQLException, SignOnException {
-        try {
-            if (XmlFileReaderWriter.isXmlFileWannabe(localgroupsFileName)) {
-                XmlFileReaderWriter.readGroups(localgroupsFileName, groups, users);
+        byte[] content = readContent(localgroupsFileName);
+        byte[] hash = AclFileManifest.hash(content);
+        if (manifest.readGroups(hash, groups, users)) {
+            return;
+        }
+        File file = new File(localgroupsFileName);
+        if (cache == null || !cache.readGroups(file, hash, groups, users)) {
+            if (XmlFileReaderWriter.isXmlContent(content)) {
+                XmlFileReaderWriter.readGroups(content, localgroupsFileName, groups, users);
             } else {
-                fileReader.readGroups(localgroupsFileName, groups, users);
+                fileReader.readGroups(AclFileReader.readRows(content), groups, users);
             }
+            if (cache != null) {
+                cache.putGroups(file, hash, groups);
+            }
+        }
+        manifest.putGroups(hash, groups, users);
+    }
+
+    /**
+     * Reads a whole file.
+     *
+     * @throws SignOnException if the file is missing or cannot be read
+     */
+    private static byte[] readContent(String fileName) throws SignOnException {
+        try {
+            return AclFileReader.readFile(fileName);
         } catch (IOException e) {
             if (e instanceof java.io.FileNotFoundException) {
-                throw new SignOnException(e, "No such file: " + localgroupsFileName);
+                throw new SignOnException(e, "No such file: " + fileName);
             } else {
-                throw new SignOnException(e, "I/O error reading file: " + localgroupsFileName);
+                throw new SignOnException(e, "I/O error reading file: " + fileName);
             }
         }
     }
@@ -138,21 +199,191 @@ public class PersistenceFile implements Persistence {
     }
 
     /**
-     * Read the ACL files from the designated folder.
+     * Read the ACL files from the designated folder. The files are parsed in
+     * parallel, the ACLs are built from them in file name order. If there is
+     * both a .acl and a .acl.xml file for an ACL, the .acl file is used.
+     * ACLs whose files, groups and permissions are unchanged since the last
+     * load are taken over from it instead of being built again.
      *
      * @param acls - a hashmap to be filled by the method.
      */
     @Override
     public void initAcls(HashMap<String, AccessControlListIF> acls) throws SignOnException {
-        // read acl files
+        List<Future<AclFileManifest.Entry>> parsing;
+        synchronized (this) {
+            parsing = prefetched;
+            prefetched = null;
+        }
+        if (parsing == null) {
+            parsing = startParsing();
+        }
+
+        try {
+            AclSnapshot model = AccessController.getLoadingSnapshot();
+            HashSet<String> names = new HashSet<String>();
+            List<File> files = new ArrayList<File>(parsing.size());
+            for (Future<AclFileManifest.Entry> f : parsing) {
+                AclFileManifest.Entry entry = await(f);
+                files.add(entry.file);
+                if (names.add(entry.parsed.name)) {
+                    acls.put(entry.parsed.name, manifest.getAcl(entry, this, model));
+                } else {
+                    manifest.putAcl(entry);
+                }
+            }
+            manifest.retainAcls(files);
+        } finally {
+            cancel(parsing);
+        }
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    /**
+     * Starts parsing the ACL files in the background.
+     */
+    @Override
+    public void prefetchAcls() throws SignOnException {
+        List<Future<AclFileManifest.Entry>> parsing = startParsing();
+        synchronized (this) {
+            cancel(prefetched);
+            prefetched = parsing;
+        }
+    }
+
+    /**
+     * Returns the names of the roles in the ACL files. Waits for the files to be
+     * parsed; the next initAcls() builds the ACLs from the same results.
+     */
+    @Override
+    public Set<String> readRoleNames() throws SignOnException {
+        List<Future<AclFileManifest.Entry>> parsing;
+        synchronized (this) {
+            if (prefetched == null) {
+                prefetched = startParsing();
+            }
+            parsing = prefetched;
+        }
+        Set<String> names = new HashSet<String>();
+        for (Future<AclFileManifest.Entry> f : parsing) {
+            for (String row : await(f).parsed.rows) {
+                if (row.startsWith("circarole:")) {
+                    int end = row.indexOf(':', "circarole:".length());
+                    names.add(row.substring("circarole:".length(), end == -1 ? row.length() : end));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Submits one parse task per ACL file, in file name order. Every file is read,
+     * but files whose content is unchanged since the last load or that are in the
+     * cache file aren't parsed again. Small numbers of files are read right away
+     * on the calling thread.
+     *
+     * @return the parse results, in file name order
+     */
+    private List<Future<AclFileManifest.Entry>> startParsing() throws SignOnException {
         File[] aclFiles = fileReader.getAclFiles(aclsFolderName);
-        for (int i = 0; i < aclFiles.length; i++) {
-            String name = getAclName(aclFiles[i]);
-            AccessControlListIF acl = readAclFile(aclFiles[i]);
+        // the file system lists files in no particular order
+        Arrays.sort(aclFiles);
 
-            name = name.replace('_', '/');
+        List<FutureTask<AclFileManifest.Entry>> tasks = new ArrayList<FutureTask<AclFileManifest.Entry>>(aclFiles.length);
+        for (File aclFile : aclFiles) {
+            AclFileManifest.Entry known = manifest.getAcl(aclFile);
+            tasks.add(new FutureTask<AclFileManifest.Entry>(() -> readAclEntry(aclFile, known)));
+        }
+        if (cache != null) {
+            cache.retainAcls(Arrays.asList(aclFiles));
+        }
 
-            acls.put(name, acl);
+        int threads = parserThreads(tasks.size(), Runtime.getRuntime().availableProcessors());
+        if (threads == 0) {
+            for (FutureTask<AclFileManifest.Entry> task : tasks) {
+                task.run();
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "acl-file-parser");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                for (FutureTask<AclFileManifest.Entry> task : tasks) {
+                    pool.execute(task);
+                }
+            } finally {
+                // the threads end once the queued files are parsed
+                pool.shutdown();
+            }
+        }
+        return new ArrayList<Future<AclFileManifest.Entry>>(tasks);
+    }
+
+    /**
+     * Returns the number of threads to parse the files on: none below
+     * PARALLEL_PARSE_THRESHOLD files, then one per PARALLEL_PARSE_THRESHOLD files
+     * up to the number of processors.
+     *
+     * @param files number of ACL files
+     * @param processors available processors
+     * @return 0 to parse on the calling thread, else the size of the pool
+     */
+    static int parserThreads(int files, int processors) {
+        if (files < PARALLEL_PARSE_THRESHOLD) {
+            return 0;
+        }
+        return Math.max(1, Math.min(processors, files / PARALLEL_PARSE_THRESHOLD));
+    }
+
+    /**
+     * Reads an ACL file and parses it unless its content is the same as in the
+     * last load or it is in the cache file.
+     *
+     * @param aclFile the file
+     * @param known its entry from the last load, or null
+     */
+    private AclFileManifest.Entry readAclEntry(File aclFile, AclFileManifest.Entry known) throws SignOnException {
+        byte[] content = readContent(aclFile.getAbsolutePath());
+        byte[] hash = AclFileManifest.hash(content);
+        if (AclFileManifest.unchanged(known, hash)) {
+            return known;
+        }
+        ParsedAcl parsed = null;
+        if (cache != null) {
+            parsed = cache.getAcl(aclFile, hash);
+            if (parsed == null) {
+                parsed = parseAclContent(aclFile, content);
+                cache.putAcl(aclFile, hash, parsed);
+            }
+        } else {
+            parsed = parseAclContent(aclFile, content);
+        }
+        return new AclFileManifest.Entry(aclFile, hash, parsed);
+    }
+
+    private static AclFileManifest.Entry await(Future<AclFileManifest.Entry> f) throws SignOnException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignOnException(e, "Interrupted while reading ACL files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SignOnException) {
+                throw (SignOnException) cause;
+            }
+            throw new SignOnException(cause, "Error reading ACL file " + cause);
+        }
+    }
+
+    private static void cancel(List<Future<AclFileManifest.Entry>> parsing) {
+        if (parsing != null) {
+            for (Future<AclFileManifest.Entry> f : parsing) {
+                f.cancel(false);
+            }
         }
     }
 
@@ -174,10 +405,18 @@ public class PersistenceFile implements Persistence {
      * won't work unless AccessController has been initialised.
      *
      * @param aclName - the name of the ACL. e.g. "/groups"
-     * @return access control list.
+     * @return access control list or null if there is no file for it.
      */
-    AccessControlList readAcl(String aclName) throws SignOnException {
-        File aclFile = new File(aclsFolderName, aclName.replace('/', '_') + ".acl");
+    @Override
+    public AccessControlListIF readAcl(String aclName) throws SignOnException {
+        String baseName = aclName.replace('/', '_');
+        File aclFile = new File(aclsFolderName, baseName + ".acl");
+        if (!aclFile.isFile()) {
+            aclFile = new File(aclsFolderName, baseName + ".acl.xml");
+            if (!aclFile.isFile()) {
+                return null;
+            }
+        }
         return readAclFile(aclFile);
     }
 
@@ -188,52 +427,52 @@ public class PersistenceFile implements Persistence {
      * @return access control list.
      */
     private AccessControlList readAclFile(File aclFile) throws SignOnException {
+        return buildAcl(parseAclFile(aclFile));
+    }
+
+    /**
+     * Read the ACL from a file. The format can be in XML or plain text, the
+     * file is read once and the format is told from its first line.
+     * Touches no shared state, so files can be parsed on any thread.
+     *
+     * @throws SignOnException
+     */
+    private ParsedAcl parseAclFile(File aclFile) throws SignOnException {
+        return parseAclContent(aclFile, readContent(aclFile.getAbsolutePath()));
+    }
+
+    private ParsedAcl parseAclContent(File aclFile, byte[] content) throws SignOnException {
+        String name = getAclName(aclFile).replace('_', '/');
+        if (XmlFileReaderWriter.isXmlContent(content)) {
+            return XmlFileReaderWriter.parseACL(content, aclFile.getAbsolutePath(), name);
+        } else {
+            return new ParsedAcl(name, null, AclFileReader.readRows(content));
+        }
+    }
+
+    /**
+     * Builds the ACL from parsed file contents. Must run on the thread that
+     * loads the snapshot.
+     */
+    AccessControlList buildAcl(ParsedAcl parsed) throws SignOnException {
 
         AccessControlList acl = new AccessControlList(this);
         acl.setMechanism(AccessControlListIF.TEXT_FILE);
 
-        String name = getAclName(aclFile);
-
-        acl.name = name.replace('_', '/');
+        acl.name = parsed.name;
 
         //!!description cannot be null
-        acl.description = acl.name;
-
-        String aclFileName = aclFile.getAbsolutePath();
+        acl.description = parsed.description != null ? parsed.description : acl.name;
 
         //1st we set a fake owner, text file based ACL's do not have
         //one special owner specified
         acl.owner = new PrincipalImpl(acl.name);
 
         acl.acl = new AclImpl(acl.owner, acl.name);
-        readAclFromFile(acl, aclFileName);
+        acl.processAclRows(parsed.rows);
         return acl;
     }
 
-    /**
-     * Read the ACL from a file. The format can be in XML or plain text.
-     *
-     * @throws SignOnException
-     */
-    private void readAclFromFile(AccessControlList acl, String aclFileName) throws SignOnException {
-
-        AclFileReader fReader = new AclFileReader();
-        try {
-            if (XmlFileReaderWriter.isXmlFileWannabe(aclFileName)) {
-                XmlFileReaderWriter.readACL(aclFileName, acl);
-            } else {
-                ArrayList<String> aRows = fReader.readFileRows(aclFileName);
-                acl.processAclRows(aRows);
-            }
-        } catch (IOException e) {
-            if (e instanceof java.io.FileNotFoundException) {
-                throw new SignOnException(e, "No such file: " + aclFileName);
-            } else {
-                throw new SignOnException(e, "I/O error reading file: " + aclFileName);
-            }
-        }
-    }
-
     @Override
     public void addAcl(String aclPath, String owner, String description, boolean isFolder)
             throws SQLException, SignOnException {
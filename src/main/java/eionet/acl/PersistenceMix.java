@@ -25,9 +25,11 @@ package eionet.acl;
 import java.security.Principal;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -88,10 +90,42 @@ class PersistenceMix implements Persistence {
      */
     @Override
     public void initAcls(HashMap<String, AccessControlListIF> acls) throws SQLException, SignOnException {
+        // database ACLs are read while the files are still being parsed; they take precedence
+        HashMap<String, AccessControlListIF> dbAcls = new HashMap<String, AccessControlListIF>();
+        if (dbModule != null) {
+            dbModule.initAcls(dbAcls);
+        }
         fileModule.initAcls(acls);
+        acls.putAll(dbAcls);
+    }
+
+    @Override
+    public void prefetchAcls() throws SignOnException {
+        fileModule.prefetchAcls();
+    }
+
+    @Override
+    public Set<String> readRoleNames() throws SQLException, SignOnException {
+        Set<String> names = new HashSet<String>(fileModule.readRoleNames());
+        if (dbModule != null) {
+            names.addAll(dbModule.readRoleNames());
+        }
+        return names;
+    }
+
+    /**
+     * Read a single ACL. Database ACLs take precedence over files of the same name,
+     * as they do in initAcls().
+     */
+    @Override
+    public AccessControlListIF readAcl(String aclPath) throws SQLException, SignOnException {
         if (dbModule != null) {
-            dbModule.initAcls(acls);
+            AccessControlListIF acl = dbModule.readAcl(aclPath);
+            if (acl != null) {
+                return acl;
+            }
         }
+        return fileModule.readAcl(aclPath);
     }
 
     @Override
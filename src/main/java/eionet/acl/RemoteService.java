@@ -103,27 +103,8 @@ public class RemoteService {
         // We cannot authorise here with c-permission because the user who is not admin of
         // the parent ACL may be the admin of the child ACL
 
-        Vector<String> v = new Vector<String>();
-        HashMap acls = AccessController.getAcls();
-        for (Iterator i = acls.keySet().iterator(); i.hasNext();) {
-            String aclName = (String) i.next();
-            AccessControlListIF acl = (AccessControlListIF) acls.get(aclName);
-
-            if (!aclName.equals(parentAclName)
-                    && aclName.length() >= parentAclName.length()
-                    && aclName.substring(0, parentAclName.length()).equals(parentAclName)
-                    && aclName.indexOf("/", parentAclName.length() + 1) == -1)
-
-                v.add(aclName);
-        }
-
-        //acl.isOwner(_user.getUser()
-
-        //sort alphabetically
-        Collator collator = Collator.getInstance();
-        Collections.sort(v, collator);
-
-        return v;
+        //sorted alphabetically
+        return new Vector<String>(AccessController.getChildAcls(parentAclName));
     }
 
     /**
@@ -189,7 +170,7 @@ public class RemoteService {
         Hashtable<String, Hashtable> flags = new Hashtable<String, Hashtable>();
 
         //name hard-coded !!!
-        flags.put("tableperms", AccessController.prmDescrs);
+        flags.put("tableperms", AccessController.getPermissionDescriptions());
 
         //localgroup permissions hard-coded now:
         Hashtable<String, String> gPerms = new Hashtable<String, String>();
@@ -329,8 +310,6 @@ public class RemoteService {
         }
         LOGGER.debug("ACL " + aclName + " entries set successfully.");
 
-        AccessController.reset();
-
         return "OK";
     }
 
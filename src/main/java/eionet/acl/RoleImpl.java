@@ -24,14 +24,11 @@
 package eionet.acl;
 
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Vector;
 
 import eionet.acl.impl.PrincipalImpl;
-import eionet.directory.DirServiceException;
-import eionet.directory.DirectoryService;
 
 /**
  * Class to hold Eionet roles.
@@ -42,36 +39,18 @@ class RoleImpl implements Group {
     private Hashtable<String, Principal> _members;
 
 
-    public RoleImpl(String roleName) {
+    /**
+     * Creates a role with occupants that have already been read from the directory.
+     *
+     * @param roleName role name
+     * @param occupants user names of the occupants
+     */
+    RoleImpl(String roleName, Collection<String> occupants) {
         _name = roleName;
-        initMembers();
-    }
-
-    private void initMembers() {
-        if (_members == null)
-          _members = new Hashtable<String, Principal>();
-
-        try {
-            Vector occupants = DirectoryService.getOccupants(_name);
-
-            if (occupants == null)
-                return;
-
-            //System.out.println("******** occupants " + occupants);
-
-            for (Iterator i = occupants.iterator(); i.hasNext();) {
-                String userName = (String) i.next();
-                Principal member = new PrincipalImpl(userName);
-
-                addMember(member);
-            }
-
-        } catch (DirServiceException dire) {
-          //do nothing, there will be no users under this role
-        } catch (Exception e) {
-          System.out.println("******** " + e.toString());
+        _members = new Hashtable<String, Principal>();
+        for (String userName : occupants) {
+            addMember(new PrincipalImpl(userName));
         }
-
     }
 
     @Override
@@ -0,0 +1,503 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eionet.directory.DirServiceException;
+import eionet.directory.DirectoryService;
+import org.apache.log4j.Logger;
+
+/**
+ * Lists of names read from the directory by key, shared by all snapshots: the
+ * occupants of each role, or for lazy role resolution the roles of each user.
+ * Lists younger than the TTL are used as they are. Older ones are still
+ * returned, but are read again in the background, so a reload never waits for
+ * the directory for a key it has seen before. Concurrent requests for a key
+ * that is being read share one directory lookup. With a TTL of 0 nothing is
+ * kept and every request reads the directory.
+ * Failed lookups aren't remembered; the key has an empty list until a lookup
+ * succeeds. A registry with idle eviction, such as the one of user roles,
+ * forgets keys that haven't been asked for within the TTL, so that it doesn't
+ * grow with every user ever seen.
+ * The lists can also be kept in a cache file. Lists read from it are used as
+ * they are, but are all read again in the background, so that a start with a
+ * slow or unreachable directory still has the last known lists.
+ */
+final class RoleRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(RoleRegistry.class);
+
+    /** Threads reading keys in the background. */
+    private static final int REFRESH_THREADS = 2;
+
+    /** Most directory lookups running at the same time in prefetch(). */
+    static final int PREFETCH_THREADS = 8;
+
+    /** Milliseconds prefetch() waits for one lookup once it has started. */
+    static final long LOOKUP_TIMEOUT_MILLIS = 10000L;
+
+    private static final int MAGIC = 0xAC1C0CC5;
+
+    /** Increased whenever the layout of the cache file changes. */
+    private static final int VERSION = 1;
+
+    /**
+     * Source of the lists.
+     */
+    interface Directory {
+        /**
+         * Returns the names listed under a key, e.g. the occupants of a role.
+         *
+         * @param key role or user name
+         * @return names; never null
+         * @throws DirServiceException if the directory cannot be read
+         */
+        List<String> read(String key) throws DirServiceException;
+    }
+
+    /**
+     * List of one key, when it was read and when it was last asked for.
+     */
+    private static final class Names {
+        final List<String> names;
+        final long readAt;
+        volatile long usedAt = System.currentTimeMillis();
+
+        Names(List<String> names, long readAt) {
+            this.names = names;
+            this.readAt = readAt;
+        }
+    }
+
+    private final Directory directory;
+
+    /** Lists by key. */
+    private final ConcurrentHashMap<String, Names> known = new ConcurrentHashMap<String, Names>();
+
+    /** Lookups in progress by key. */
+    private final ConcurrentHashMap<String, CompletableFuture<List<String>>> lookups =
+            new ConcurrentHashMap<String, CompletableFuture<List<String>>>();
+
+    private final ThreadPoolExecutor refresher;
+
+    /** Milliseconds lists are used without reading them again. */
+    private volatile long ttlMillis = 0L;
+
+    /** File the lists are kept in, or null. */
+    private volatile File cacheFile;
+
+    /** True if keys not asked for within the TTL are forgotten. */
+    private volatile boolean evictIdle = false;
+
+    /** When idle keys were last looked for. */
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    /** True while a save of the cache file is queued. */
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
+
+    /** Called when a list read in the background differs from the one before. */
+    private volatile Runnable changeListener;
+
+    /**
+     * Creates a registry of the occupants of Eionet directory roles.
+     */
+    RoleRegistry() {
+        this(RoleRegistry::readOccupants);
+    }
+
+    /**
+     * Creates a registry reading the given directory.
+     *
+     * @param directory source of the lists
+     */
+    RoleRegistry(Directory directory) {
+        this.directory = directory;
+        refresher = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "acl-role-refresh");
+                    t.setDaemon(true);
+                    return t;
+                });
+        refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns a registry of the roles of Eionet directory users.
+     */
+    static RoleRegistry ofUserRoles() {
+        RoleRegistry registry = new RoleRegistry(userName -> toNames(DirectoryService.getRoles(userName)));
+        registry.setEvictIdle(true);
+        return registry;
+    }
+
+    private static List<String> readOccupants(String roleName) throws DirServiceException {
+        return toNames(DirectoryService.getOccupants(roleName));
+    }
+
+    private static List<String> toNames(Vector<?> values) {
+        List<String> names = new ArrayList<String>();
+        if (values != null) {
+            for (Object o : values) {
+                names.add((String) o);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Sets how long lists are used before they are read again.
+     *
+     * @param ttlMillis milliseconds; 0 to read the directory on every request
+     */
+    void setTtl(long ttlMillis) {
+        this.ttlMillis = Math.max(0L, ttlMillis);
+        if (this.ttlMillis == 0L && cacheFile == null) {
+            known.clear();
+        }
+    }
+
+    /**
+     * Sets whether keys that haven't been asked for within the TTL are forgotten.
+     *
+     * @param evictIdle true to forget idle keys
+     */
+    void setEvictIdle(boolean evictIdle) {
+        this.evictIdle = evictIdle;
+    }
+
+    /**
+     * Returns the number of keys whose lists are kept.
+     *
+     * @return number of keys
+     */
+    int size() {
+        return known.size();
+    }
+
+    /**
+     * Returns how long lists are used before they are read again.
+     *
+     * @return milliseconds
+     */
+    long getTtl() {
+        return ttlMillis;
+    }
+
+    /**
+     * Sets the listener told when a list read in the background has changed.
+     *
+     * @param listener listener, or null
+     */
+    void setChangeListener(Runnable listener) {
+        changeListener = listener;
+    }
+
+    /**
+     * Keeps the lists in the given file. The lists already in the file are
+     * used from now on, but count as outdated and are read again when asked for.
+     * Every successful lookup is written back to the file. With a cache file,
+     * lists are kept even with a TTL of 0; they are then read again in the
+     * background on every request.
+     *
+     * @param file cache file, or null to keep none
+     */
+    synchronized void setCacheFile(File file) {
+        if (file == null ? cacheFile == null : file.equals(cacheFile)) {
+            return;
+        }
+        cacheFile = file;
+        if (file == null) {
+            return;
+        }
+        try {
+            int count = read(AclFileReader.readFile(file.getPath()));
+            LOGGER.info("Read " + count + " role lists from " + file);
+        } catch (FileNotFoundException e) {
+            LOGGER.info("No role cache in " + file + " yet");
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable role cache " + file + ": " + e);
+        }
+    }
+
+    private int read(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a role cache of version " + VERSION);
+        }
+        HashMap<String, List<String>> lists = new HashMap<String, List<String>>();
+        for (int n = in.readInt(); n > 0; n--) {
+            lists.put(FileModelCache.readString(in), Collections.unmodifiableList(FileModelCache.readStrings(in)));
+        }
+        // read in full before using any of it; the time 0 marks them as outdated
+        for (Map.Entry<String, List<String>> e : lists.entrySet()) {
+            known.putIfAbsent(e.getKey(), new Names(e.getValue(), 0L));
+        }
+        return lists.size();
+    }
+
+    /**
+     * Writes the lists to the cache file. Failures are only logged.
+     */
+    synchronized void save() {
+        File file = cacheFile;
+        if (file == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            TreeMap<String, Names> lists = new TreeMap<String, Names>(known);
+            out.writeInt(lists.size());
+            for (Map.Entry<String, Names> e : lists.entrySet()) {
+                FileModelCache.writeString(out, e.getKey());
+                FileModelCache.writeStrings(out, e.getValue().names);
+            }
+            out.flush();
+            FileModelCache.replaceFile(file, bytes.toByteArray());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write role cache " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Saves the cache file in the background; saves asked for in the meantime
+     * are done by the same save.
+     */
+    private void queueSave() {
+        if (saveQueued.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                saveQueued.set(false);
+                save();
+            });
+        }
+    }
+
+    /**
+     * Returns the names listed under a key. Waits for the directory only if the
+     * key isn't known yet or nothing is kept.
+     *
+     * @param key role or user name
+     * @return unmodifiable list of names; empty if the directory cannot be read
+     */
+    List<String> get(String key) {
+        long now = System.currentTimeMillis();
+        if (evictIdle) {
+            evictIdle(now);
+        }
+        Names names = known.get(key);
+        if (names != null) {
+            names.usedAt = now;
+            if (now - names.readAt >= ttlMillis) {
+                refresh(key);
+            }
+            return names.names;
+        }
+        return await(key, lookup(key));
+    }
+
+    /**
+     * Forgets, in the background, the keys that haven't been asked for within
+     * the TTL. Runs at most once per TTL.
+     */
+    private void evictIdle(long now) {
+        long ttl = ttlMillis;
+        long last = lastEviction.get();
+        if (ttl == 0L || now - last < ttl || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+        refresher.execute(() -> {
+            int before = known.size();
+            known.values().removeIf(names -> now - names.usedAt >= ttl);
+            if (known.size() < before && cacheFile != null) {
+                queueSave();
+            }
+        });
+    }
+
+    /**
+     * Reads the lists of many keys at once, e.g. the occupants of all roles of
+     * a load, with at most PREFETCH_THREADS lookups running at the same time.
+     * Keys that are already known are answered as get() does. A key that the
+     * directory doesn't answer for within LOOKUP_TIMEOUT_MILLIS of its lookup
+     * starting gets an empty list; the lookup goes on in the background and is
+     * used by later requests.
+     *
+     * @param keys role or user names
+     * @return lists by key, for every given key
+     */
+    Map<String, List<String>> prefetch(Collection<String> keys) {
+        Map<String, List<String>> result = new HashMap<String, List<String>>();
+        List<String> unknown = new ArrayList<String>();
+        for (String name : new TreeSet<String>(keys)) {
+            if (known.containsKey(name)) {
+                result.put(name, get(name));
+            } else {
+                unknown.add(name);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return result;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(PREFETCH_THREADS, unknown.size()), r -> {
+            Thread t = new Thread(r, "acl-role-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<FutureTask<List<String>>> tasks = new ArrayList<FutureTask<List<String>>>(unknown.size());
+            List<AtomicLong> starts = new ArrayList<AtomicLong>(unknown.size());
+            for (String name : unknown) {
+                AtomicLong started = new AtomicLong();
+                FutureTask<List<String>> task = new FutureTask<List<String>>(() -> {
+                    started.set(System.currentTimeMillis());
+                    return await(name, lookup(name));
+                });
+                pool.execute(task);
+                tasks.add(task);
+                starts.add(started);
+            }
+            for (int i = 0; i < unknown.size(); i++) {
+                result.put(unknown.get(i), awaitPrefetch(unknown.get(i), tasks.get(i), starts.get(i)));
+            }
+        } finally {
+            // lookups that timed out end on their own
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Waits for one prefetched key. A lookup still queued behind others gets
+     * the timeout from the moment it is waited for.
+     */
+    private static List<String> awaitPrefetch(String name, FutureTask<List<String>> task, AtomicLong started) {
+        long waitFrom = System.currentTimeMillis();
+        try {
+            while (true) {
+                long start = started.get();
+                long remaining = (start == 0L ? waitFrom : start) + LOOKUP_TIMEOUT_MILLIS - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    break;
+                }
+                try {
+                    return task.get(remaining, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // check again, the lookup may have started only now
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.<String>emptyList();
+        } catch (ExecutionException e) {
+            LOGGER.error("Error in reading " + name + " from the directory", e.getCause());
+            return Collections.<String>emptyList();
+        }
+        LOGGER.warn("No answer from the directory for " + name + " within "
+                + LOOKUP_TIMEOUT_MILLIS + " ms, it is taken as empty until it is read");
+        return Collections.<String>emptyList();
+    }
+
+    /**
+     * Reads the key again in the background unless it is being read already.
+     */
+    private void refresh(String name) {
+        if (!lookups.containsKey(name)) {
+            refresher.execute(() -> lookup(name));
+        }
+    }
+
+    /**
+     * Reads the key from the directory, or joins the lookup that is already running.
+     */
+    private CompletableFuture<List<String>> lookup(String name) {
+        CompletableFuture<List<String>> mine = new CompletableFuture<List<String>>();
+        CompletableFuture<List<String>> running = lookups.putIfAbsent(name, mine);
+        if (running != null) {
+            return running;
+        }
+        try {
+            long readAt = System.currentTimeMillis();
+            List<String> names = Collections.unmodifiableList(new ArrayList<String>(directory.read(name)));
+            if (ttlMillis > 0L || cacheFile != null) {
+                Names before = known.put(name, new Names(names, readAt));
+                Runnable listener = changeListener;
+                if (before != null && !before.names.equals(names) && listener != null) {
+                    listener.run();
+                }
+                if (cacheFile != null) {
+                    queueSave();
+                }
+            }
+            mine.complete(names);
+        } catch (DirServiceException e) {
+            mine.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            lookups.remove(name, mine);
+        }
+        return mine;
+    }
+
+    private static List<String> await(String name, CompletableFuture<List<String>> lookup) {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof DirServiceException)) {
+                LOGGER.error("Error in reading " + name + " from the directory", e.getCause());
+            }
+        }
+        return Collections.<String>emptyList();
+    }
+}
@@ -1,17 +1,20 @@
 package eionet.acl;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.Principal;
 import eionet.acl.Group;
 import eionet.acl.Permission;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -24,6 +27,10 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -34,10 +41,9 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PermissionBits;
 import eionet.acl.impl.PermissionImpl;
 import eionet.acl.impl.PrincipalImpl;
 
@@ -113,6 +119,53 @@ Example of a file that defines permissions.
  */
 public class XmlFileReaderWriter {
 
+    /**
+     * StAX factory shared by all readers. It is configured once and afterwards
+     * only used to create readers, which is safe from several threads.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Returns the attribute value, or "" if the attribute is missing, the same
+     * as DOM's Element.getAttribute() did.
+     */
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            if (reader != null)
+                reader.close();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Reads a whole XML file.
+     *
+     * @param what what the file holds, for error messages
+     */
+    private static byte[] readXmlFile(String fileFullPath, String what) throws SignOnException {
+        File file = new File(fileFullPath);
+        if (!file.exists() || !file.isFile())
+            throw new SignOnException("File does not exist: " + fileFullPath);
+        try {
+            return AclFileReader.readFile(fileFullPath);
+        } catch (IOException e) {
+            e.printStackTrace(System.out);
+            // i/o error
+            throw new SignOnException(e, "Failed to read " + what + " from " + fileFullPath + ", I/O error");
+        }
+    }
+
     /**
      * Read a group file.
      *
@@ -120,72 +173,59 @@ public class XmlFileReaderWriter {
      */
     public static void readGroups(String fileFullPath, HashMap<String, Group> groups, HashMap<String, Principal> users)
             throws SignOnException {
+        readGroups(readXmlFile(fileFullPath, "groups"), fileFullPath, groups, users);
+    }
+
+    /**
+     * Read groups from the contents of a group file. Only the group being read
+     * is held as objects.
+     *
+     * @param content file contents
+     * @param fileFullPath file name for error messages
+     */
+    static void readGroups(byte[] content, String fileFullPath, HashMap<String, Group> groups,
+            HashMap<String, Principal> users) throws SignOnException {
 
+        XMLStreamReader reader = null;
         try {
-            File file = new File(fileFullPath);
-            if (!file.exists() || !file.isFile())
-                throw new SignOnException("File does not exist: " + fileFullPath);
-
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document dom = db.parse(fileFullPath);
-
-            // get the root elememt
-            Element rootElm = dom.getDocumentElement();
-
-            // get nodelist of <group> elements
-            NodeList nl = rootElm.getElementsByTagName("group");
-            for (int i = 0; nl != null && i < nl.getLength(); i++) {
-                Element elm = (Element) nl.item(i);
-                Group group = readGroup(elm, users);
-                groups.put(group.getName(), group);
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+
+            Group group = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String elmName = reader.getLocalName();
+                    if (elmName.equals("group")) {
+                        String groupID = attribute(reader, "id");
+                        group = groupID.length() == 0 ? null : new GroupImpl(groupID);
+                    } else if (elmName.equals("member") && group != null) {
+                        String userID = attribute(reader, "userid");
+                        if (userID.length() > 0) {
+                            Principal principal = new PrincipalImpl(userID);
+                            users.put(userID, principal);
+                            group.addMember(principal);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("group")) {
+                    if (group != null)
+                        groups.put(group.getName(), group);
+                    group = null;
+                }
             }
         } catch (FactoryConfigurationError e) {
             e.printStackTrace(System.out);
-            // unable to get a document builder factory
+            // unable to get a stream reader factory
             throw new SignOnException(e, "Failed to read groups from " + fileFullPath
-                    + ", unable to get a document builder factory");
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace(System.out);
-            // parser was unable to be configured
-            throw new SignOnException(e, "Failed to read groups from " + fileFullPath + ", parser configuration problem");
-        } catch (SAXException e) {
+                    + ", unable to get a stream reader factory");
+        } catch (XMLStreamException e) {
             e.printStackTrace(System.out);
             // parsing error
             throw new SignOnException(e, "Failed to read groups from " + fileFullPath + ", parsing error");
-        } catch (IOException e) {
-            e.printStackTrace(System.out);
-            // i/o error
-            throw new SignOnException(e, "Failed to read groups from " + fileFullPath + ", I/O error");
+        } finally {
+            close(reader);
         }
     }
 
-    /**
-     * Read one group in XML DOM.
-     * @param groupElm
-     * @return Group object or null
-     */
-    private static Group readGroup(Element groupElm, HashMap<String, Principal> allUsers) {
-
-        String groupID = groupElm.getAttribute("id");
-        if (groupID == null || groupID.length() == 0)
-            return null;
-
-        Group group = new GroupImpl(groupID);
-        NodeList nl = groupElm.getElementsByTagName("member");
-        for (int i = 0; nl != null && i < nl.getLength(); i++) {
-            Element elm = (Element) nl.item(i);
-            String userID = elm.getAttribute("userid");
-            if (userID != null && userID.length() > 0) {
-                Principal principal = new PrincipalImpl(userID);
-                allUsers.put(userID, principal);
-                group.addMember(principal);
-            }
-        }
-
-        return group;
-    }
-
     /**
      * Write groups to XML file.
      *
@@ -284,12 +324,17 @@ public class XmlFileReaderWriter {
      */
     public static boolean isValidXmlFile(String fileFullPath) throws IOException, ParserConfigurationException {
 
+        byte[] content = AclFileReader.readFile(fileFullPath);
+        XMLStreamReader reader = null;
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            db.parse(fileFullPath);
-        } catch (SAXException e) {
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } catch (XMLStreamException e) {
             return false;
+        } finally {
+            close(reader);
         }
 
         return true;
@@ -304,48 +349,46 @@ public class XmlFileReaderWriter {
      * @throws SignOnException
      */
     public static void readPermissions(String fileFullPath, Map<String, Permission> permissions, Map<String, String> prmDescrs) throws SignOnException {
+        readPermissions(readXmlFile(fileFullPath, "permissions"), fileFullPath, permissions, prmDescrs);
+    }
 
+    /**
+     * Read permission descriptions from the contents of a permissions file.
+     *
+     * @param content file contents
+     * @param fileFullPath file name for error messages
+     * @param permissions
+     * @param prmDescrs
+     * @throws SignOnException
+     */
+    static void readPermissions(byte[] content, String fileFullPath, Map<String, Permission> permissions,
+            Map<String, String> prmDescrs) throws SignOnException {
+
+        XMLStreamReader reader = null;
         try {
-            File file = new File(fileFullPath);
-            if (!file.exists() || !file.isFile())
-                throw new SignOnException("File does not exist: " + fileFullPath);
-
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document dom = db.parse(fileFullPath);
-
-            // get the root elememt
-            Element rootElm = dom.getDocumentElement();
-
-            // get nodelist of <group> elements
-            NodeList nl = rootElm.getElementsByTagName("permission");
-            for (int i = 0; nl != null && i < nl.getLength(); i++) {
-                Element elm = (Element) nl.item(i);
-                String prmID = elm.getAttribute("id");
-                String prmDescr = elm.getAttribute("description");
-                if (prmID != null) {
-                    permissions.put(prmID, new PermissionImpl(prmID));
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("permission")) {
+                    String prmID = attribute(reader, "id");
+                    String prmDescr = attribute(reader, "description");
+                    Permission prm = new PermissionImpl(prmID);
+                    PermissionBits.register(prm);
+                    permissions.put(prmID, prm);
                     prmDescrs.put(prmID, prmDescr);
                 }
             }
         } catch (FactoryConfigurationError e) {
             e.printStackTrace(System.out);
-            // unable to get a document builder factory
+            // unable to get a stream reader factory
             throw new SignOnException(e, "Failed to read permissions from " + fileFullPath
-                    + ", unable to get a document builder factory");
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace(System.out);
-            // parser was unable to be configured
-            throw new SignOnException(e, "Failed to read permissions from " + fileFullPath
-                    + ", parser configuration problem");
-        } catch (SAXException e) {
+                    + ", unable to get a stream reader factory");
+        } catch (XMLStreamException e) {
             e.printStackTrace(System.out);
             // parsing error
             throw new SignOnException(e, "Failed to read permissions from " + fileFullPath + ", parsing error");
-        } catch (IOException e) {
-            e.printStackTrace(System.out);
-            // i/o error
-            throw new SignOnException(e, "Failed to read permissions from " + fileFullPath + ", I/O error");
+        } finally {
+            close(reader);
         }
     }
 
@@ -357,107 +400,139 @@ public class XmlFileReaderWriter {
      * @throws SignOnException
      */
     public static void readACL(String fileFullPath, AccessControlList acl) throws SignOnException {
+        ParsedAcl parsed = parseACL(fileFullPath, acl.getName());
+        acl.setDescription(parsed.description);
+        acl.processAclRows(parsed.rows);
+    }
 
-        try {
-            File file = new File(fileFullPath);
-            if (!file.exists() || !file.isFile())
-                throw new SignOnException("File does not exist: " + fileFullPath);
-
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document dom = db.parse(fileFullPath);
-
-            // get the root elememt (<acl>)
-            Element rootElm = dom.getDocumentElement();
-            String aclDescription = rootElm.getAttribute("description");
-            if (aclDescription != null)
-                acl.setDescription(aclDescription);
-
-            // get entry nodelist
-            NodeList nl = rootElm.getElementsByTagName("entries");
-            if (nl == null || nl.getLength() == 0)
-                throw new SignOnException("Missing <entries> element");
-            NodeList nlEntry = ((Element) nl.item(0)).getElementsByTagName("entry");
-            if (nlEntry == null || nlEntry.getLength() == 0)
-                throw new SignOnException("Missing <entry> element");
+    /**
+     * Parse ACL XML file into the plain text row format.
+     *
+     * @param fileFullPath
+     * @param aclName ACL path
+     * @return description and rows
+     * @throws SignOnException
+     */
+    static ParsedAcl parseACL(String fileFullPath, String aclName) throws SignOnException {
+        return parseACL(readXmlFile(fileFullPath, "acl"), fileFullPath, aclName);
+    }
 
-            // loop through entries, for each of them construct an acl row in the old format (i.e. user:roug:i,v,u),
-            // collect those rows into a list
+    /**
+     * Parse the contents of an ACL XML file into the plain text row format. The
+     * content is streamed, each entry becomes a row as soon as it ends. Safe to
+     * call from any thread.
+     *
+     * @param content file contents
+     * @param fileFullPath file name for error messages
+     * @param aclName ACL path
+     * @return description and rows
+     * @throws SignOnException
+     */
+    static ParsedAcl parseACL(byte[] content, String fileFullPath, String aclName) throws SignOnException {
+
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+
+            // the description is on the root element (<acl>)
+            String aclDescription = null;
+            // only the first <entries> element is read
+            boolean entriesSeen = false;
+            boolean inEntries = false;
+
+            // state of the current <entry>
+            boolean inEntry = false;
+            String entryType = null;
+            String principalType = null;
+            String principalId = null;
+            boolean permissionsSeen = false;
+            boolean inPermissions = false;
+            int prmCount = 0;
+            StringBuffer rowStrBuf = null;
+
+            // each entry is turned into an acl row in the old format (i.e. user:roug:i,v,u),
+            // those rows are collected into a list
             ArrayList<String> rows = new ArrayList<String>();
-            for (int i = 0; i < nlEntry.getLength(); i++) {
-
-                // get entry's type
-                Element entryElm = (Element) nlEntry.item(i);
-                String entryType = entryElm.getAttribute("type");
-                boolean isNotObject = entryType != null;
-
-                // get principal, its type and its id
-                nl = entryElm.getElementsByTagName("principal");
-                if (nl == null || nl.getLength() == 0)
-                    throw new SignOnException("Missing <principal> element");
-                Element principalElm = (Element) nl.item(0);
-                String principalType = principalElm.getAttribute("type");
-                String principalId = principalElm.getAttribute("id");
-                if (principalType == null || principalId == null)
-                    throw new SignOnException("Missing 'type' or 'id' attribute in " + principalElm.getTagName() + "element");
-                if (!AccessControlList.isLegalPrincipalType(principalType))
-                    throw new SignOnException("Unknown principal type: " + principalType);
-
-                // get permissions nodelist
-                nl = entryElm.getElementsByTagName("permissions");
-                if (nl == null || nl.getLength() == 0)
-                    throw new SignOnException("Missing <permissions> element");
-                NodeList nlPermissions = ((Element) nl.item(0)).getElementsByTagName("permission");
-
-                // loop over permissions in this entry,
-                // construct an acl row in the old plain text way (i.e. user:roug:i,v,u)
-                int j;
-                StringBuffer rowStrBuf = new StringBuffer();
-                rowStrBuf.append(principalType).append(":").append(principalId).append(":");
-                for (j = 0; nlPermissions != null && j < nlPermissions.getLength(); j++) {
-
-                    Element prmElm = (Element) nlPermissions.item(j);
-                    String prmId = prmElm.getAttribute("id");
-                    if (prmId == null)
-                        throw new SignOnException("Missing 'id' attribute in " + prmElm.getTagName() + "element");
-                    else {
-                        if (j > 0)
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String elmName = reader.getLocalName();
+                    if (aclDescription == null) {
+                        aclDescription = attribute(reader, "description");
+                    }
+                    if (elmName.equals("entries") && !entriesSeen) {
+                        entriesSeen = true;
+                        inEntries = true;
+                    } else if (elmName.equals("entry") && inEntries && !inEntry) {
+                        inEntry = true;
+                        entryType = attribute(reader, "type");
+                        principalType = null;
+                        principalId = null;
+                        permissionsSeen = false;
+                        prmCount = 0;
+                        rowStrBuf = new StringBuffer();
+                    } else if (elmName.equals("principal") && inEntry && principalType == null) {
+                        principalType = attribute(reader, "type");
+                        principalId = attribute(reader, "id");
+                    } else if (elmName.equals("permissions") && inEntry && !permissionsSeen) {
+                        permissionsSeen = true;
+                        inPermissions = true;
+                    } else if (elmName.equals("permission") && inPermissions) {
+                        // construct the permissions part in the old plain text way (i.e. i,v,u)
+                        if (prmCount > 0)
                             rowStrBuf.append(",");
-                        rowStrBuf.append(prmId);
+                        rowStrBuf.append(attribute(reader, "id"));
+                        prmCount++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String elmName = reader.getLocalName();
+                    if (elmName.equals("permissions")) {
+                        inPermissions = false;
+                    } else if (elmName.equals("entry") && inEntry) {
+                        inEntry = false;
+                        if (principalType == null)
+                            throw new SignOnException("Missing <principal> element");
+                        if (!AccessControlList.isLegalPrincipalType(principalType))
+                            throw new SignOnException("Unknown principal type: " + principalType);
+                        if (!permissionsSeen)
+                            throw new SignOnException("Missing <permissions> element");
+
+                        StringBuffer row = new StringBuffer();
+                        row.append(principalType).append(":").append(principalId).append(":").append(rowStrBuf);
+                        // if this is a DOC- or DCC- type entry, append ":doc" or ":ddc" to the end of the row string
+                        if (prmCount > 0) {
+                            row.append(":").append(entryType);
+                        }
+                        // add row to the list
+                        rows.add(row.toString());
+                    } else if (elmName.equals("entries") && inEntries && !inEntry) {
+                        inEntries = false;
                     }
                 }
-
-                // if this is a DOC- or DCC- type entry, append ":doc" or ":ddc" to the end of the constructed row string
-                if (isNotObject && j > 0) {
-                    rowStrBuf.append(":").append(entryType);
-                }
-                // add row to the list
-                rows.add(rowStrBuf.toString());
             }
 
-            // finally, process the rows constructed and collected above
-            acl.processAclRows(rows);
+            if (!entriesSeen)
+                throw new SignOnException("Missing <entries> element");
+            if (rows.isEmpty())
+                throw new SignOnException("Missing <entry> element");
+
+            return new ParsedAcl(aclName, aclDescription == null ? "" : aclDescription, rows);
         } catch (FactoryConfigurationError e) {
             e.printStackTrace(System.out);
-            // unable to get a document builder factory
-            throw new SignOnException(e, "Failed to read acl from " + fileFullPath + ", unable to get a document builder factory");
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace(System.out);
-            // parser was unable to be configured
-            throw new SignOnException(e, "Failed to read acl from " + fileFullPath + ", parser configuration problem");
-        } catch (SAXException e) {
+            // unable to get a stream reader factory
+            throw new SignOnException(e, "Failed to read acl from " + fileFullPath + ", unable to get a stream reader factory");
+        } catch (XMLStreamException e) {
             e.printStackTrace(System.out);
             // parsing error
             throw new SignOnException(e, "Failed to read acl from " + fileFullPath + ", parsing error");
-        } catch (IOException e) {
-            e.printStackTrace(System.out);
-            // i/o error
-            throw new SignOnException(e, "Failed to read acl from " + fileFullPath + ", I/O error");
+        } finally {
+            close(reader);
         }
     }
 
     /**
-     * Write ACL to XML file.
+     * Write ACL to XML file. The file is left untouched if it already has
+     * exactly this content.
      *
      * @param aclEntries
      * @throws SignOnException
@@ -466,8 +541,8 @@ public class XmlFileReaderWriter {
 
         TransformerFactory trf = TransformerFactory.newInstance();
 
+        File file = new File(fileFullPath);
         FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
         try {
             Transformer tr = trf.newTransformer();
             tr.setOutputProperty(OutputKeys.METHOD, "xml");
@@ -476,9 +551,19 @@ public class XmlFileReaderWriter {
             // TODO: init dom
             Document dom = aclToDOM(aclAttrs, aclEntries);
 
-            fos = new FileOutputStream(new File(fileFullPath));
-            osw = new OutputStreamWriter(fos, "UTF-8");
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            OutputStreamWriter osw = new OutputStreamWriter(bos, "UTF-8");
             tr.transform(new DOMSource(dom), new StreamResult(osw));
+            osw.close();
+            byte[] content = bos.toByteArray();
+
+            if (file.isFile() && file.length() == content.length
+                    && Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+                return;
+            }
+
+            fos = new FileOutputStream(file);
+            fos.write(content);
         } catch (TransformerConfigurationException e) {
             e.printStackTrace(System.out);
             throw new SignOnException(e, "Failed to write acl to " + fileFullPath + ", TransformerConfigurationException");
@@ -494,10 +579,11 @@ public class XmlFileReaderWriter {
         } catch (TransformerException e) {
             e.printStackTrace(System.out);
             throw new SignOnException(e, "Failed to write acl to " + fileFullPath + ", TransformerException");
+        } catch (IOException e) {
+            e.printStackTrace(System.out);
+            throw new SignOnException(e, "Failed to write acl to " + fileFullPath + ", I/O error");
         } finally {
             try {
-                if (osw != null)
-                    osw.close();
                 if (fos != null)
                     fos.close();
             } catch (Exception e) {
@@ -581,18 +667,24 @@ public class XmlFileReaderWriter {
      * @throws IOException
      */
     public static boolean isXmlFileWannabe(String fileFullPath) throws IOException {
+        return isXmlContent(AclFileReader.readFile(fileFullPath));
+    }
 
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(fileFullPath));
-            String line = reader.readLine();
-            return line != null && line.startsWith("<?xml") && line.trim().endsWith("?>");
-        } finally {
-            try {
-                if (reader != null)
-                    reader.close();
-            } catch (Exception e) {
-            }
+    /**
+     * Checks if file contents look like XML: the first line, after an optional
+     * byte order mark, is an XML declaration.
+     *
+     * @param content file contents
+     * @return true if the content should be parsed as XML
+     */
+    static boolean isXmlContent(byte[] content) {
+        int start = AclFileReader.bomLength(content);
+        int end = start;
+        while (end < content.length && content[end] != '\n' && content[end] != '\r') {
+            end++;
         }
+        String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+        return line.startsWith("<?xml") && line.trim().endsWith("?>");
     }
+
 }
@@ -41,6 +41,8 @@ import java.util.Vector;
 public class AclEntryImpl implements AclEntry {
     private Principal user = null;
     private Vector<Permission> permissionSet = new Vector<Permission>(10, 10);
+    /** Same permissions as permissionSet, as a PermissionBits mask. */
+    private long permissionMask = 0L;
     private boolean negative = false;
 
     /**
@@ -103,10 +105,12 @@ public class AclEntryImpl implements AclEntry {
     @Override
     public boolean addPermission(Permission permission) {
 
-        if (permissionSet.contains(permission))
+        long bit = PermissionBits.register(permission);
+        if ((permissionMask & bit) != 0)
           return false;
 
         permissionSet.addElement(permission);
+        permissionMask |= bit;
 
         return true;
     }
@@ -121,6 +125,7 @@ public class AclEntryImpl implements AclEntry {
      */
     @Override
     public boolean removePermission(Permission permission) {
+        permissionMask &= ~PermissionBits.maskOf(permission);
         return permissionSet.removeElement(permission);
     }
 
@@ -134,7 +139,14 @@ public class AclEntryImpl implements AclEntry {
      */
     @Override
     public boolean checkPermission(Permission permission) {
-        return permissionSet.contains(permission);
+        return (permissionMask & PermissionBits.maskOf(permission)) != 0;
+    }
+
+    /**
+     * Returns the permissions of this entry as a PermissionBits mask.
+     */
+    public long getPermissionMask() {
+        return permissionMask;
     }
 
     /**
@@ -178,6 +190,7 @@ public class AclEntryImpl implements AclEntry {
         AclEntryImpl cloned;
         cloned = new AclEntryImpl(user);
         cloned.permissionSet = (Vector<Permission>) permissionSet.clone();
+        cloned.permissionMask = permissionMask;
         cloned.negative = negative;
         return cloned;
     }
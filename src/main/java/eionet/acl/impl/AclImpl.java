@@ -31,13 +31,22 @@ import eionet.acl.AclEntry;
 import eionet.acl.Group;
 import eionet.acl.NotOwnerException;
 import eionet.acl.Permission;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Vector;
+import java.util.Set;
 
 /**
  * An Access Control List (ACL) is encapsulated by this class.
+ * The entry tables are never modified once they have been published. Adding
+ * or removing an entry builds a new table and replaces the reference, so
+ * permission checks and enumerations need no lock. An ACL being loaded gets
+ * all its entries with addEntries(), which builds the tables once.
  * @author      Satish Dharmaraj
  */
 public class AclImpl extends OwnerImpl implements Acl {
@@ -46,16 +55,13 @@ public class AclImpl extends OwnerImpl implements Acl {
     // ACLs. One each depending on whether the entity is a group
     // or principal.
     //
-    private Hashtable<Principal, AclEntry> allowedUsersTable =
-                                        new Hashtable<Principal, AclEntry>(23);
-    private Hashtable<Principal, AclEntry> allowedGroupsTable =
-                                        new Hashtable<Principal, AclEntry>(23);
-    private Hashtable<Principal, AclEntry> deniedUsersTable =
-                                        new Hashtable<Principal, AclEntry>(23);
-    private Hashtable<Principal, AclEntry> deniedGroupsTable =
-                                        new Hashtable<Principal, AclEntry>(23);
+    private static final int ALLOWED_USERS = 0;
+    private static final int ALLOWED_GROUPS = 1;
+    private static final int DENIED_USERS = 2;
+    private static final int DENIED_GROUPS = 3;
+
+    private volatile List<Map<Principal, AclEntry>> tables = newTables();
     private String aclName = null;
-    private Vector<Permission> zeroSet = new Vector<Permission>(1,1);
 
 
     /**
@@ -115,16 +121,54 @@ public class AclImpl extends OwnerImpl implements Acl {
         if (!isOwner(caller))
             throw new NotOwnerException();
 
-        Hashtable<Principal, AclEntry> aclTable = findTable(entry);
+        int t = findTable(entry);
         Principal key = entry.getPrincipal();
 
-        if (aclTable.get(key) != null)
+        if (tables.get(t).get(key) != null)
             return false;
 
+        Map<Principal, AclEntry> aclTable = new LinkedHashMap<Principal, AclEntry>(tables.get(t));
         aclTable.put(key, entry);
+        tables = replaceTable(t, aclTable);
         return true;
     }
 
+    /**
+     * Adds ACL entries to this ACL, as addEntry() does for each of them, but
+     * builds and publishes the new tables only once. Used when an ACL is loaded,
+     * where adding the entries one by one would copy the tables for each entry.
+     * @param caller the principal who is invoking this method.
+     * @param entries the ACL entries that must be added to the ACL.
+     * @return true if all entries were added, false if some were already present.
+     * @exception NotOwnerException if the caller principal
+     * is not on the owners list of the Acl.
+     */
+    public synchronized boolean addEntries(Principal caller, Collection<AclEntry> entries)
+      throws NotOwnerException
+    {
+        if (!isOwner(caller))
+            throw new NotOwnerException();
+
+        List<Map<Principal, AclEntry>> t = new ArrayList<Map<Principal, AclEntry>>(4);
+        for (Map<Principal, AclEntry> table : tables)
+            t.add(new LinkedHashMap<Principal, AclEntry>(table));
+
+        boolean all = true;
+        for (AclEntry entry : entries) {
+            Map<Principal, AclEntry> aclTable = t.get(findTable(entry));
+            Principal key = entry.getPrincipal();
+            if (aclTable.containsKey(key))
+                all = false;
+            else
+                aclTable.put(key, entry);
+        }
+
+        for (int i = 0; i < 4; i++)
+            t.set(i, Collections.unmodifiableMap(t.get(i)));
+        tables = Collections.unmodifiableList(t);
+        return all;
+    }
+
     /**
      * Removes an ACL entry from this ACL.
      * The caller principal must be a part of the owners list of the ACL
@@ -142,11 +186,16 @@ public class AclImpl extends OwnerImpl implements Acl {
         if (!isOwner(caller))
             throw new NotOwnerException();
 
-        Hashtable<Principal, AclEntry> aclTable = findTable(entry);
+        int t = findTable(entry);
         Principal key = entry.getPrincipal();
 
-        AclEntry o = aclTable.remove(key);
-        return (o != null);
+        if (!tables.get(t).containsKey(key))
+            return false;
+
+        Map<Principal, AclEntry> aclTable = new LinkedHashMap<Principal, AclEntry>(tables.get(t));
+        aclTable.remove(key);
+        tables = replaceTable(t, aclTable);
+        return true;
     }
 
     /**
@@ -181,51 +230,56 @@ public class AclImpl extends OwnerImpl implements Acl {
      * @return The resulting permission set that the principal is allowed.
      */
     @Override
-    public synchronized Enumeration<Permission> getPermissions(Principal user) {
+    public Enumeration<Permission> getPermissions(Principal user) {
+        return PermissionBits.permissions(getPermissionMask(user));
+    }
 
-        Enumeration<Permission> individualPositive;
-        Enumeration<Permission> individualNegative;
-        Enumeration<Permission> groupPositive;
-        Enumeration<Permission> groupNegative;
+    /**
+     * Returns the set of allowed permissions for the specified principal as
+     * a PermissionBits mask. The set is calculated as described for
+     * getPermissions(Principal).
+     * @param user the principal for which the permissions are returned.
+     * @return mask of the permissions that the principal is allowed.
+     */
+    public long getPermissionMask(Principal user) {
+        return getPermissionMask(user, null);
+    }
+
+    /**
+     * Returns the set of allowed permissions for the specified principal as
+     * a PermissionBits mask, using an already resolved group membership instead
+     * of asking each group of the ACL.
+     * @param user the principal for which the permissions are returned.
+     * @param memberOf all groups the principal is a member of, compared by
+     * identity, or null to ask the groups.
+     * @return mask of the permissions that the principal is allowed.
+     */
+    public long getPermissionMask(Principal user, Set<Group> memberOf) {
+        List<Map<Principal, AclEntry>> t = tables;
+        long groupPos = getGroupMask(t.get(ALLOWED_GROUPS), user, memberOf);
+        long groupNeg = getGroupMask(t.get(DENIED_GROUPS), user, memberOf);
+        long indPos = getIndividualMask(t.get(ALLOWED_USERS), user);
+        long indNeg = getIndividualMask(t.get(DENIED_USERS), user);
 
         //
         // canonicalize the sets. That is remove common permissions from
         // positive and negative sets.
         //
-        groupPositive =
-            subtract(getGroupPositive(user), getGroupNegative(user));
-        groupNegative  =
-            subtract(getGroupNegative(user), getGroupPositive(user));
-        individualPositive =
-            subtract(getIndividualPositive(user), getIndividualNegative(user));
-        individualNegative =
-            subtract(getIndividualNegative(user), getIndividualPositive(user));
+        long groupPositive = groupPos & ~groupNeg;
+        long groupNegative = groupNeg & ~groupPos;
+        long individualPositive = indPos & ~indNeg;
+        long individualNegative = indNeg & ~indPos;
 
         //
         // net positive permissions is individual positive permissions
-        // plus (group positive - individual negative).
+        // plus (group positive - individual negative), net negative
+        // permissions is individual negative permissions plus
+        // (group negative - individual positive).
         //
-        Enumeration<Permission> temp1 =
-            subtract(groupPositive, individualNegative);
-        Enumeration<Permission> netPositive =
-            union(individualPositive, temp1);
+        long netPositive = individualPositive | (groupPositive & ~individualNegative);
+        long netNegative = individualNegative | (groupNegative & ~individualPositive);
 
-        // recalculate the enumeration since we lost it in performing the
-        // subtraction
-        //
-        individualPositive =
-            subtract(getIndividualPositive(user), getIndividualNegative(user));
-        individualNegative =
-            subtract(getIndividualNegative(user), getIndividualPositive(user));
-
-        //
-        // net negative permissions is individual negative permissions
-        // plus (group negative - individual positive).
-        //
-        temp1 = subtract(groupNegative, individualPositive);
-        Enumeration<Permission> netNegative = union(individualNegative, temp1);
-
-        return subtract(netPositive, netNegative);
+        return netPositive & ~netNegative;
     }
 
     /**
@@ -242,23 +296,17 @@ public class AclImpl extends OwnerImpl implements Acl {
     @Override
     public boolean checkPermission(Principal principal, Permission permission)
     {
-        Enumeration<Permission> permSet = getPermissions(principal);
-        while (permSet.hasMoreElements()) {
-            Permission p = permSet.nextElement();
-            if (p.equals(permission))
-              return true;
-        }
-        return false;
+        return (getPermissionMask(principal) & PermissionBits.maskOf(permission)) != 0;
     }
 
     /**
      * returns an enumeration of the entries in this ACL.
      */
     @Override
-    public synchronized Enumeration<AclEntry> entries() {
-        return new AclEnumerator(this,
-                                 allowedUsersTable, allowedGroupsTable,
-                                 deniedUsersTable, deniedGroupsTable);
+    public Enumeration<AclEntry> entries() {
+        List<Map<Principal, AclEntry>> t = tables;
+        return new AclEnumerator(t.get(ALLOWED_USERS), t.get(ALLOWED_GROUPS),
+                                 t.get(DENIED_USERS), t.get(DENIED_GROUPS));
     }
 
     /**
@@ -285,116 +333,78 @@ public class AclImpl extends OwnerImpl implements Acl {
     // This method figures out which
     // table is the one that this AclEntry belongs to.
     //
-    private Hashtable<Principal, AclEntry> findTable(AclEntry entry) {
-        Hashtable<Principal, AclEntry> aclTable = null;
-
+    private static int findTable(AclEntry entry) {
         Principal p = entry.getPrincipal();
         if (p instanceof Group) {
-            if (entry.isNegative())
-                aclTable = deniedGroupsTable;
-            else
-                aclTable = allowedGroupsTable;
+            return entry.isNegative() ? DENIED_GROUPS : ALLOWED_GROUPS;
         } else {
-            if (entry.isNegative())
-                aclTable = deniedUsersTable;
-            else
-                aclTable = allowedUsersTable;
+            return entry.isNegative() ? DENIED_USERS : ALLOWED_USERS;
         }
-        return aclTable;
     }
 
-    //
-    // returns the set e1 U e2.
-    //
-    private static Enumeration<Permission> union(Enumeration<Permission> e1,
-                Enumeration<Permission> e2) {
-        Vector<Permission> v = new Vector<Permission>(20, 20);
-
-        while (e1.hasMoreElements())
-            v.addElement(e1.nextElement());
-
-        while (e2.hasMoreElements()) {
-            Permission o = e2.nextElement();
-            if (!v.contains(o))
-                v.addElement(o);
-        }
-
-        return v.elements();
+    private static List<Map<Principal, AclEntry>> newTables() {
+        List<Map<Principal, AclEntry>> t = new ArrayList<Map<Principal, AclEntry>>(4);
+        for (int i = 0; i < 4; i++)
+            t.add(Collections.<Principal, AclEntry>emptyMap());
+        return Collections.unmodifiableList(t);
     }
 
     //
-    // returns the set e1 - e2.
+    // returns a copy of the tables with table number t replaced.
     //
-    private Enumeration<Permission> subtract(Enumeration<Permission> e1,
-                Enumeration<Permission> e2) {
-        Vector<Permission> v = new Vector<Permission>(20, 20);
-
-        while (e1.hasMoreElements())
-            v.addElement(e1.nextElement());
-
-        while (e2.hasMoreElements()) {
-            Permission o = e2.nextElement();
-            if (v.contains(o))
-                v.removeElement(o);
-        }
-
-        return v.elements();
+    private List<Map<Principal, AclEntry>> replaceTable(int t, Map<Principal, AclEntry> aclTable) {
+        List<Map<Principal, AclEntry>> copy = new ArrayList<Map<Principal, AclEntry>>(tables);
+        copy.set(t, Collections.unmodifiableMap(aclTable));
+        return Collections.unmodifiableList(copy);
     }
 
-    private Enumeration<Permission> getGroupPositive(Principal user) {
-        Enumeration<Permission> groupPositive = zeroSet.elements();
-        Enumeration<Principal> e = allowedGroupsTable.keys();
-        while (e.hasMoreElements()) {
-            Group g = (Group)e.nextElement();
-            if (g.isMember(user)) {
-                AclEntry ae = allowedGroupsTable.get(g);
-                groupPositive = union(ae.permissions(), groupPositive);
-            }
-        }
-        return groupPositive;
-    }
-
-    private Enumeration<Permission> getGroupNegative(Principal user) {
-        Enumeration<Permission> groupNegative = zeroSet.elements();
-        Enumeration<Principal> e = deniedGroupsTable.keys();
-        while (e.hasMoreElements()) {
-            Group g = (Group)e.nextElement();
-            if (g.isMember(user)) {
-                AclEntry ae = deniedGroupsTable.get(g);
-                groupNegative = union(ae.permissions(), groupNegative);
-            }
+    //
+    // returns the union of the permissions of the group entries
+    // the user is a member of, according to memberOf if given.
+    //
+    private static long getGroupMask(Map<Principal, AclEntry> groupsTable, Principal user,
+                Set<Group> memberOf) {
+        long mask = 0L;
+        for (AclEntry ae : groupsTable.values()) {
+            Group g = (Group) ae.getPrincipal();
+            if (memberOf != null ? memberOf.contains(g) : g.isMember(user))
+                mask |= entryMask(ae);
         }
-        return groupNegative;
+        return mask;
     }
 
-    private Enumeration<Permission> getIndividualPositive(Principal user) {
-        Enumeration<Permission> individualPositive = zeroSet.elements();
-        AclEntry ae = allowedUsersTable.get(user);
-        if (ae != null)
-            individualPositive = ae.permissions();
-        return individualPositive;
+    private static long getIndividualMask(Map<Principal, AclEntry> usersTable, Principal user) {
+        AclEntry ae = usersTable.get(user);
+        return ae == null ? 0L : entryMask(ae);
     }
 
-    private Enumeration<Permission> getIndividualNegative(Principal user) {
-        Enumeration<Permission> individualNegative = zeroSet.elements();
-        AclEntry ae  = deniedUsersTable.get(user);
-        if (ae != null)
-            individualNegative = ae.permissions();
-        return individualNegative;
+    //
+    // returns the permissions of the entry as a mask, also for
+    // entries that are not AclEntryImpl.
+    //
+    private static long entryMask(AclEntry ae) {
+        if (ae instanceof AclEntryImpl)
+            return ((AclEntryImpl) ae).getPermissionMask();
+        long mask = 0L;
+        Enumeration<Permission> e = ae.permissions();
+        while (e.hasMoreElements())
+            mask |= PermissionBits.register(e.nextElement());
+        return mask;
     }
 }
 
+//
+// Enumerates the entries of unmodifiable tables, so no locking is needed.
+//
 final class AclEnumerator implements Enumeration<AclEntry> {
-    Acl acl;
     Enumeration<AclEntry> u1, u2, g1, g2;
 
-    AclEnumerator(Acl acl, Hashtable<?,AclEntry> u1, Hashtable<?,AclEntry> g1,
-                  Hashtable<?,AclEntry> u2, Hashtable<?,AclEntry> g2) {
-        this.acl = acl;
-        this.u1 = u1.elements();
-        this.u2 = u2.elements();
-        this.g1 = g1.elements();
-        this.g2 = g2.elements();
+    AclEnumerator(Map<?,AclEntry> u1, Map<?,AclEntry> g1,
+                  Map<?,AclEntry> u2, Map<?,AclEntry> g2) {
+        this.u1 = Collections.enumeration(u1.values());
+        this.u2 = Collections.enumeration(u2.values());
+        this.g1 = Collections.enumeration(g1.values());
+        this.g2 = Collections.enumeration(g2.values());
     }
 
     @Override
@@ -408,17 +418,14 @@ final class AclEnumerator implements Enumeration<AclEntry> {
     @Override
     public AclEntry nextElement()
     {
-        AclEntry o;
-        synchronized (acl) {
-            if (u1.hasMoreElements())
-                return u1.nextElement();
-            if (u2.hasMoreElements())
-                return u2.nextElement();
-            if (g1.hasMoreElements())
-                return g1.nextElement();
-            if (g2.hasMoreElements())
-                return g2.nextElement();
-        }
+        if (u1.hasMoreElements())
+            return u1.nextElement();
+        if (u2.hasMoreElements())
+            return u2.nextElement();
+        if (g1.hasMoreElements())
+            return g1.nextElement();
+        if (g2.hasMoreElements())
+            return g2.nextElement();
         throw new NoSuchElementException("Acl Enumerator");
     }
 }
\ No newline at end of file
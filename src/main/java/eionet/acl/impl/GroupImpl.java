@@ -27,16 +27,32 @@ package eionet.acl.impl;
 
 import java.security.Principal;
 import eionet.acl.Group;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class implements a group of principals.
+ * Members are kept in a hashed set. Membership tests use a cached closure of
+ * all principals reachable through nested groups, which is rebuilt after this
+ * group or any of the nested groups has changed. members() enumerates a cached
+ * unmodifiable list of the members, made again only after a change.
  * @author      Satish Dharmaraj
  */
 public class GroupImpl implements Group {
-    private Vector<Principal> groupMembers = new Vector<Principal>(50, 100);
+    private LinkedHashSet<Principal> groupMembers = new LinkedHashSet<Principal>();
     private String group;
+    /** Incremented on every change of groupMembers. */
+    private volatile int modCount = 0;
+    /** Flattened membership, null until first needed. */
+    private volatile Closure closure = null;
+    /** Members as returned by members(), null after a change until needed again. */
+    private volatile List<Principal> memberList = null;
 
     /**
      * Constructs a Group object with no members.
@@ -54,15 +70,19 @@ public class GroupImpl implements Group {
      */
     @Override
     public boolean addMember(Principal user) {
-        if (groupMembers.contains(user))
-          return false;
+        synchronized (groupMembers) {
+            if (groupMembers.contains(user))
+              return false;
 
-        // do not allow groups to be added to itself.
-        if (group.equals(user.toString()))
-            throw new IllegalArgumentException();
+            // do not allow groups to be added to itself.
+            if (group.equals(user.toString()))
+                throw new IllegalArgumentException();
 
-        groupMembers.addElement(user);
-        return true;
+            groupMembers.add(user);
+            memberList = null;
+            modCount++;
+            return true;
+        }
     }
 
     /**
@@ -73,15 +93,32 @@ public class GroupImpl implements Group {
      */
     @Override
     public boolean removeMember(Principal user) {
-        return groupMembers.removeElement(user);
+        synchronized (groupMembers) {
+            if (!groupMembers.remove(user))
+                return false;
+            memberList = null;
+            modCount++;
+            return true;
+        }
     }
 
     /**
-     * returns the enumeration of the members in the group.
+     * returns the enumeration of the members in the group. Later changes
+     * to the group do not affect an enumeration already returned.
      */
     @Override
     public Enumeration<? extends Principal> members() {
-        return groupMembers.elements();
+        List<Principal> list = memberList;
+        if (list == null) {
+            synchronized (groupMembers) {
+                list = memberList;
+                if (list == null) {
+                    list = Collections.unmodifiableList(new ArrayList<Principal>(groupMembers));
+                    memberList = list;
+                }
+            }
+        }
+        return Collections.enumeration(list);
     }
 
     /**
@@ -135,18 +172,26 @@ public class GroupImpl implements Group {
      */
     @Override
     public boolean isMember(Principal member) {
+        Closure c = closure;
+        if (c == null || !c.isCurrent()) {
+            c = new Closure(this);
+            closure = c;
+        }
+
+        if (c.members.contains(member))
+            return true;
 
         //
-        // if the member is part of the group (common case), return true.
-        // if not, recursively search depth first in the group looking for the
-        // principal.
+        // Groups of other implementations can't be flattened, ask them.
+        // (This can lead to a loop if a mixture of implementations form
+        // a loop, but we live with this improbable case rather than
+        // clutter the interface.)
         //
-        if (groupMembers.contains(member)) {
-            return true;
-        } else {
-            Vector<Group> alreadySeen = new Vector<Group>(10);
-            return isMemberRecurse(member, alreadySeen);
+        for (Group g : c.otherGroups) {
+            if (g.isMember(member))
+                return true;
         }
+        return false;
     }
 
     /**
@@ -158,43 +203,48 @@ public class GroupImpl implements Group {
     }
 
     //
-    // This function is the recursive search of groups for this
-    // implementation of the Group. The search proceeds building up
-    // a vector of already seen groups. Only new groups are considered,
-    // thereby avoiding loops.
+    // The flattened membership of a group: all principals reachable from it,
+    // including the nested groups themselves. The search proceeds building up
+    // a set of already seen groups. Only new groups are considered, thereby
+    // avoiding loops. The change counters of the visited groups are recorded
+    // so that a change anywhere below the group is noticed.
     //
-    boolean isMemberRecurse(Principal member, Vector<Group> alreadySeen) {
-        Enumeration<? extends Principal> e = members();
-        while (e.hasMoreElements()) {
-            boolean mem = false;
-            Principal p = e.nextElement();
-
-            // if the member is in this collection, return true
-            if (p.equals(member)) {
-                return true;
-            } else if (p instanceof GroupImpl) {
-                //
-                // if not recurse if the group has not been checked already.
-                // Can call method in this package only if the object is an
-                // instance of this class. Otherwise call the method defined
-                // in the interface. (This can lead to a loop if a mixture of
-                // implementations form a loop, but we live with this improbable
-                // case rather than clutter the interface by forcing the
-                // implementation of this method.)
-                //
-                GroupImpl g = (GroupImpl) p;
-                alreadySeen.addElement(this);
-                if (!alreadySeen.contains(g))
-                  mem =  g.isMemberRecurse(member, alreadySeen);
-            } else if (p instanceof Group) {
-                Group g = (Group) p;
-                if (!alreadySeen.contains(g))
-                  mem = g.isMember(member);
+    private static final class Closure {
+        final Set<Principal> members = new HashSet<Principal>();
+        final List<Group> otherGroups = new ArrayList<Group>();
+        final List<GroupImpl> groups = new ArrayList<GroupImpl>();
+        final List<Integer> modCounts = new ArrayList<Integer>();
+
+        Closure(GroupImpl root) {
+            Set<GroupImpl> alreadySeen = Collections.newSetFromMap(new IdentityHashMap<GroupImpl, Boolean>());
+            add(root, alreadySeen);
+        }
+
+        private void add(GroupImpl g, Set<GroupImpl> alreadySeen) {
+            if (!alreadySeen.add(g))
+                return;
+
+            // read the counter first, a change while copying then shows as stale
+            groups.add(g);
+            modCounts.add(g.modCount);
+
+            Enumeration<? extends Principal> e = g.members();
+            while (e.hasMoreElements()) {
+                Principal p = e.nextElement();
+                members.add(p);
+                if (p instanceof GroupImpl)
+                    add((GroupImpl) p, alreadySeen);
+                else if (p instanceof Group)
+                    otherGroups.add((Group) p);
             }
+        }
 
-            if (mem)
-              return mem;
+        boolean isCurrent() {
+            for (int i = 0; i < groups.size(); i++) {
+                if (groups.get(i).modCount != modCounts.get(i))
+                    return false;
+            }
+            return true;
         }
-        return false;
     }
 }
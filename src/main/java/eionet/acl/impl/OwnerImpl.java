@@ -31,20 +31,24 @@ import eionet.acl.Group;
 import eionet.acl.LastOwnerException;
 import eionet.acl.NotOwnerException;
 import eionet.acl.Owner;
+import java.util.Collection;
 import java.util.Enumeration;
 
 /**
  * Class implementing the Owner interface. The
  * initial owner principal is configured as
  * part of the constructor.
+ * The owners group is never modified once it has been published. Changes
+ * build a new group and replace the reference, so isOwner() needs no lock.
  * @author      Satish Dharmaraj
  */
 public class OwnerImpl implements Owner {
-    private Group ownerGroup;
+    private volatile Group ownerGroup;
 
     public OwnerImpl(Principal owner) {
-        ownerGroup = new GroupImpl("AclOwners");
-        ownerGroup.addMember(owner);
+        Group g = new GroupImpl("AclOwners");
+        g.addMember(owner);
+        ownerGroup = g;
     }
 
     /**
@@ -66,10 +70,34 @@ public class OwnerImpl implements Owner {
         if (!isOwner(caller))
             throw new NotOwnerException();
 
-        ownerGroup.addMember(owner);
+        Group g = copyOwners();
+        g.addMember(owner);
+        ownerGroup = g;
         return false;
     }
 
+    /**
+     * Adds several owners at once, as addOwner() does for each of them, but
+     * replaces the owners group only once.
+     * @param caller the principal who is invoking this method.
+     * @param owners The owners that should be added to the owners list.
+     * @exception NotOwnerException if the caller principal is not on
+     * the owners list of the Acl.
+     */
+    public synchronized void addOwners(Principal caller, Collection<? extends Principal> owners)
+      throws NotOwnerException
+    {
+        if (!isOwner(caller))
+            throw new NotOwnerException();
+        if (owners.isEmpty())
+            return;
+
+        Group g = copyOwners();
+        for (Principal owner : owners)
+            g.addMember(owner);
+        ownerGroup = g;
+    }
+
     /**
      * Delete owner. If this is the last owner in the ACL, an exception is
      * raised.
@@ -96,9 +124,12 @@ public class OwnerImpl implements Owner {
         // check if there is atleast 2 members left.
         //
         Object o = e.nextElement();
-        if (e.hasMoreElements())
-            return ownerGroup.removeMember(owner);
-        else
+        if (e.hasMoreElements()) {
+            Group g = copyOwners();
+            boolean removed = g.removeMember(owner);
+            ownerGroup = g;
+            return removed;
+        } else
             throw new LastOwnerException();
 
     }
@@ -109,7 +140,18 @@ public class OwnerImpl implements Owner {
      * @return true if the passed principal is in the owner list, false if not.
      */
     @Override
-    public synchronized boolean isOwner(Principal owner) {
+    public boolean isOwner(Principal owner) {
         return ownerGroup.isMember(owner);
     }
+
+    //
+    // returns a modifiable copy of the owners group.
+    //
+    private Group copyOwners() {
+        Group g = new GroupImpl("AclOwners");
+        Enumeration<? extends Principal> e = ownerGroup.members();
+        while (e.hasMoreElements())
+            g.addMember(e.nextElement());
+        return g;
+    }
 }
\ No newline at end of file
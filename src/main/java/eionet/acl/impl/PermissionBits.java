@@ -0,0 +1,135 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl.impl;
+
+import eionet.acl.Permission;
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every permission a dense bit index so that permission sets can be
+ * handled as long bitmasks. Permissions are identified by their string form,
+ * the same way PermissionImpl.equals() compares them. Indexes are assigned in
+ * the order the permissions are registered and are never reused, so a mask
+ * stays valid across ACL reloads.
+ */
+public final class PermissionBits {
+
+    /** Maximum number of distinct permissions a long can hold. */
+    public static final int MAX_PERMISSIONS = 64;
+
+    /** The table shared by all ACLs. */
+    private static final Table TABLE = new Table(MAX_PERMISSIONS);
+
+    private PermissionBits() {
+    }
+
+    /**
+     * Assigns the permission a bit index if it doesn't have one yet.
+     *
+     * @param permission the permission
+     * @return the single-bit mask of the permission
+     * @throws IllegalStateException if there are more than MAX_PERMISSIONS permissions
+     */
+    public static long register(Permission permission) {
+        return TABLE.register(permission);
+    }
+
+    /**
+     * Returns the mask of a permission without registering it.
+     *
+     * @param permission the permission
+     * @return the single-bit mask, or 0 if the permission has never been registered
+     */
+    public static long maskOf(Permission permission) {
+        return TABLE.maskOf(permission);
+    }
+
+    /**
+     * Returns the permissions whose bits are set in the mask, in index order.
+     *
+     * @param mask permission mask
+     * @return enumeration of permissions
+     */
+    public static Enumeration<Permission> permissions(long mask) {
+        return TABLE.permissions(mask);
+    }
+
+    /**
+     * Bit indexes of the permissions, at most as many as the capacity.
+     * Separate from the static methods so that a small table can be used on its own.
+     */
+    static final class Table {
+
+        /** Bit mask by permission id. */
+        private final ConcurrentHashMap<String, Long> masks = new ConcurrentHashMap<String, Long>();
+
+        /** Permission by bit index. */
+        private final Permission[] permissions;
+
+        /** Number of assigned indexes. */
+        private int count = 0;
+
+        Table(int capacity) {
+            if (capacity < 1 || capacity > MAX_PERMISSIONS) {
+                throw new IllegalArgumentException("Capacity must be 1.." + MAX_PERMISSIONS);
+            }
+            permissions = new Permission[capacity];
+        }
+
+        long register(Permission permission) {
+            String id = permission.toString();
+            Long mask = masks.get(id);
+            if (mask != null) {
+                return mask;
+            }
+            synchronized (permissions) {
+                mask = masks.get(id);
+                if (mask == null) {
+                    if (count == permissions.length) {
+                        throw new IllegalStateException("More than " + permissions.length + " distinct permissions");
+                    }
+                    permissions[count] = permission;
+                    mask = 1L << count;
+                    count++;
+                    masks.put(id, mask);
+                }
+                return mask;
+            }
+        }
+
+        long maskOf(Permission permission) {
+            Long mask = masks.get(permission.toString());
+            return mask == null ? 0L : mask;
+        }
+
+        Enumeration<Permission> permissions(long mask) {
+            Vector<Permission> v = new Vector<Permission>(Long.bitCount(mask));
+            while (mask != 0) {
+                int i = Long.numberOfTrailingZeros(mask);
+                v.addElement(permissions[i]);
+                mask &= mask - 1;
+            }
+            return v.elements();
+        }
+    }
+}
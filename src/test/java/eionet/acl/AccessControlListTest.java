@@ -6,9 +6,12 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 import org.junit.Before;
 
@@ -134,6 +137,27 @@ public class AccessControlListTest extends ACLDatabaseTestCase {
         AccessController.removeAcl(aclPath);
         assertFalse(AccessController.aclExists(aclPath));
     }
+
+    /**
+     * The roles that database ACLs have entries for are found before the ACLs are read.
+     */
+    @Test
+    public void testRoleNamesInDatabase() throws Exception {
+        String aclPath = "/whatever/roles";
+        AccessController.addAcl(aclPath, "jaanus1", "roles description");
+        try {
+            Vector<Hashtable<String, String>> entries = new Vector<Hashtable<String, String>>();
+            entries.add(constructAclEntry("user", "jensen", "v,i"));
+            entries.add(constructAclEntry("circarole", "stub-reporters", "v"));
+            entries.add(constructAclEntry("circarole", "stub-nfp", "i"));
+            AccessController.getAcl(aclPath).setAclEntries(entries);
+
+            Set<String> roleNames = new PersistenceDB().readRoleNames();
+            assertEquals(new HashSet<String>(Arrays.asList("stub-reporters", "stub-nfp")), roleNames);
+        } finally {
+            AccessController.removeAcl(aclPath);
+        }
+    }
 //
 //    /**
 //     * Constructs a hashtable representing an ACL entry.
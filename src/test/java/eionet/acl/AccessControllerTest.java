@@ -23,11 +23,18 @@
 
 package eionet.acl;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
@@ -57,6 +64,116 @@ public class AccessControllerTest extends ACLDatabaseTestCase {
         assertFalse(AccessController.hasPermission(null, "/", "x"));
     }
 
+    /**
+     * A reload keeps the ACLs whose file, groups and permissions haven't changed.
+     */
+    @Test
+    public void reloadKeepsUnchangedAcl() throws SignOnException {
+        AccessControlListIF before = AccessController.getAcl("/whatever");
+        AccessController.reset();
+        AccessControlListIF after = AccessController.getAcl("/whatever");
+        // the new snapshot has its own copy sharing the entries
+        assertNotSame(before, after);
+        assertSame(((AccessControlList) before).acl, ((AccessControlList) after).acl);
+        assertTrue(AccessController.hasPermission("jensen", "/whatever", "c"));
+        assertFalse(AccessController.hasPermission("enriko", "/whatever", "c"));
+    }
+
+    /**
+     * A requested reload is done in the background; readers keep the current snapshot.
+     */
+    @Test
+    public void requestedReloadIsPublishedInTheBackground() throws Exception {
+        AclSnapshot before = AccessController.getSnapshot();
+        AccessController.requestReload();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (AccessController.getSnapshot() == before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertNotSame(before, AccessController.getSnapshot());
+        assertTrue(AccessController.hasPermission("jensen", "/whatever", "c"));
+    }
+
+    /**
+     * With the database in error, getAcls() serves the current snapshot and
+     * leaves the reload to the background.
+     */
+    @Test
+    public void getAclsWithDatabaseInErrorReloadsInTheBackground() throws Exception {
+        AclSnapshot before = AccessController.getSnapshot();
+        AccessController.dbInError = true;
+        try {
+            assertNotNull(AccessController.getAcls().get("/whatever"));
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (AccessController.getSnapshot() == before && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertNotSame(before, AccessController.getSnapshot());
+        } finally {
+            AccessController.dbInError = false;
+        }
+    }
+
+    /**
+     * A failing reload is retried after a delay that grows with every failure.
+     */
+    @Test
+    public void failedReloadsAreRetriedWithBackoff() {
+        assertEquals(0L, AccessController.reloadRetryMillis(0));
+        assertEquals(AccessController.RELOAD_RETRY_MILLIS, AccessController.reloadRetryMillis(1));
+        assertEquals(AccessController.RELOAD_RETRY_MILLIS * 2, AccessController.reloadRetryMillis(2));
+        assertEquals(AccessController.RELOAD_RETRY_MILLIS * 8, AccessController.reloadRetryMillis(4));
+        assertEquals(AccessController.MAX_RELOAD_RETRY_MILLIS, AccessController.reloadRetryMillis(100));
+    }
+
+    /**
+     * A changed ACL file is read again even if its size and modification time are the same.
+     */
+    @Test
+    public void reloadNoticesEditKeepingSizeAndTime() throws Exception {
+        File aclFile = new File("target/test-classes/_samesize.acl");
+        try {
+            Files.write(aclFile.toPath(), "user:jensen:v\n".getBytes("UTF-8"));
+            long modified = aclFile.lastModified();
+            AccessController.reset();
+            assertTrue(AccessController.hasPermission("jensen", "/samesize", "v"));
+
+            Files.write(aclFile.toPath(), "user:jensen:x\n".getBytes("UTF-8"));
+            aclFile.setLastModified(modified);
+            AccessController.reset();
+            assertTrue(AccessController.hasPermission("jensen", "/samesize", "x"));
+            assertFalse(AccessController.hasPermission("jensen", "/samesize", "v"));
+        } finally {
+            aclFile.delete();
+            AccessController.reset();
+        }
+    }
+
+    /**
+     * With lazy roles the roles of a user are kept for at least MIN_ROLE_USER_CACHE_TTL
+     * seconds, so a check doesn't read the directory every time.
+     */
+    @Test
+    public void lazyRolesKeepUserRolesForAMinimumTime() throws Exception {
+        AclProperties aclProperties = AclPropertiesBuilder.AclPropertiesBuilder("acl.properties");
+        aclProperties.setRoleLazy(true);
+        aclProperties.setRoleUserCacheTtl(0);
+        try {
+            AccessController.initAccessController(aclProperties);
+            AccessController.reset();
+            assertEquals(AccessController.MIN_ROLE_USER_CACHE_TTL * 1000L,
+                    AccessController.getUserRoleRegistry().getTtl());
+
+            aclProperties.setRoleUserCacheTtl(60);
+            AccessController.initAccessController(aclProperties);
+            AccessController.reset();
+            assertEquals(60000L, AccessController.getUserRoleRegistry().getTtl());
+        } finally {
+            AccessController.initAccessController(AclPropertiesBuilder.AclPropertiesBuilder("acl.properties"));
+            AccessController.reset();
+        }
+    }
+
     /**
      * Test that enriko has 'x' permission and not 'c' permission.
      * Enriko is in no group and has no "user" line, so he gets "authenticated".
@@ -78,6 +195,60 @@ public class AccessControllerTest extends ACLDatabaseTestCase {
         assertFalse(AccessController.hasPermission("anni", "/", "c"));
     }
 
+    /**
+     * Without inheritance a path needs its own ACL, with it the nearest ancestor's ACL is used.
+     */
+    @Test
+    public void inheritFromAncestor() throws Exception {
+        try {
+            AccessController.hasPermission("owner", "/dcctest/doc1/part", "c");
+            fail("Expected AclNotFoundException");
+        } catch (AclNotFoundException e) {
+            // expected
+        }
+
+        AclProperties aclProperties = AclPropertiesBuilder.AclPropertiesBuilder("acl.properties");
+        aclProperties.setInheritAcls(true);
+        try {
+            AccessController.initAccessController(aclProperties);
+
+            assertTrue(AccessController.hasPermission("owner", "/dcctest/doc1/part", "c"));
+            assertFalse(AccessController.hasPermission("owner", "/dcctest/doc1/part", "d"));
+            assertEquals(AccessController.hasPermission(null, "/", "v"),
+                    AccessController.hasPermission(null, "/nosuchacl", "v"));
+        } finally {
+            AccessController.initAccessController(AclPropertiesBuilder.AclPropertiesBuilder("acl.properties"));
+            AccessController.reset();
+        }
+    }
+
+    /**
+     * All test ACLs are directly below the root.
+     */
+    @Test
+    public void subtreeOfRoot() throws SignOnException {
+        assertEquals(Arrays.asList("/dcctest", "/eeaprojects", "/localgroups", "/whatever"),
+                AccessController.getSubtreeAcls("/"));
+        assertEquals(AccessController.getChildAcls("/"), AccessController.getSubtreeAcls("/"));
+        assertTrue(AccessController.getSubtreeAcls("/dcctest").isEmpty());
+    }
+
+    /**
+     * The batch check gives the same answers as hasPermission() and treats
+     * a missing ACL as not permitted.
+     */
+    @Test
+    public void batchCheckOnDCCTest() throws SignOnException {
+        List<String> paths = Arrays.asList("/dcctest", "/", "/nosuchacl");
+        boolean[] permitted = AccessController.hasPermissions("prj_user3", paths, "x");
+        assertTrue(permitted[0]);
+        assertEquals(AccessController.hasPermission("prj_user3", "/", "x"), permitted[1]);
+        assertFalse(permitted[2]);
+
+        assertEquals(Arrays.asList("/dcctest"),
+                AccessController.filterByPermission("owner", Arrays.asList("/dcctest", "/nosuchacl"), "c"));
+    }
+
     /**
      * Check that the DCC or DOC isn't used for authorisation.
      */
@@ -248,6 +419,25 @@ public class AccessControllerTest extends ACLDatabaseTestCase {
         assertFalse("'x' permission must not be present in root ACL", permsVector.indexOf("x") >= 0);
     }
     
+    /**
+     * A reload publishes a new snapshot and leaves ACLs of the previous one usable.
+     *
+     * @throws SignOnException
+     */
+    @Test
+    public void resetPublishesNewSnapshot() throws SignOnException {
+        AclSnapshot before = AccessController.getSnapshot();
+        AccessControlListIF rootBefore = AccessController.getAcl("/");
+
+        AccessController.reset();
+
+        AclSnapshot after = AccessController.getSnapshot();
+        assertTrue("reset must publish a new snapshot", after != before);
+        assertTrue("snapshot versions must increase", after.getVersion() > before.getVersion());
+        assertTrue("the new snapshot must contain the root ACL", after.getAcls().containsKey("/"));
+        assertTrue("ACL of the old snapshot must still answer", rootBefore.checkPermission(null, "v"));
+    }
+
     /**
      * 
      *
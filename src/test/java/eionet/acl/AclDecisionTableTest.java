@@ -0,0 +1,178 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import eionet.acl.impl.AclEntryImpl;
+import eionet.acl.impl.AclImpl;
+import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PermissionBits;
+import eionet.acl.impl.PermissionImpl;
+import eionet.acl.impl.PrincipalImpl;
+import org.junit.Test;
+
+/**
+ * Test the compiled decision table against the permissions the ACL itself gives,
+ * and the role part used for lazy role resolution.
+ */
+public class AclDecisionTableTest {
+
+    private static long mask(String... permissions) {
+        long mask = 0L;
+        for (String p : permissions) {
+            mask |= PermissionBits.register(new PermissionImpl(p));
+        }
+        return mask;
+    }
+
+    /**
+     * Builds an ACL with entries for the reporters role, the nfp local group
+     * and the users jensen and anni, sharing the principals of the given index.
+     */
+    private static AclImpl buildAcl(MembershipIndex membership) throws Exception {
+        PrincipalImpl owner = new PrincipalImpl("owner");
+        AclImpl acl = new AclImpl(owner, "/lazy");
+
+        AclEntry reporters = new AclEntryImpl(membership.getRole("reporters"));
+        reporters.addPermission(new PermissionImpl("v"));
+        reporters.addPermission(new PermissionImpl("i"));
+        acl.addEntry(owner, reporters);
+        AclEntry jensen = new AclEntryImpl(new PrincipalImpl("jensen"));
+        jensen.addPermission(new PermissionImpl("u"));
+        acl.addEntry(owner, jensen);
+        AclEntry anni = new AclEntryImpl(new PrincipalImpl("anni"));
+        anni.addPermission(new PermissionImpl("i"));
+        anni.setNegativePermissions();
+        acl.addEntry(owner, anni);
+        return acl;
+    }
+
+    private static long mask(Enumeration<Permission> permissions) {
+        long mask = 0L;
+        while (permissions.hasMoreElements()) {
+            mask |= PermissionBits.register(permissions.nextElement());
+        }
+        return mask;
+    }
+
+    private static AclEntry entry(Principal principal, boolean negative, String... permissions) {
+        AclEntry entry = new AclEntryImpl(principal);
+        for (String p : permissions) {
+            entry.addPermission(new PermissionImpl(p));
+        }
+        if (negative) {
+            entry.setNegativePermissions();
+        }
+        return entry;
+    }
+
+    @Test
+    public void tableAgreesWithTheAclForEveryPrincipal() throws Exception {
+        PrincipalImpl owner = new PrincipalImpl("owner");
+        GroupImpl editors = new GroupImpl("editors");
+        GroupImpl seniors = new GroupImpl("seniors");
+        GroupImpl blocked = new GroupImpl("blocked");
+        editors.addMember(new PrincipalImpl("ann"));
+        editors.addMember(new PrincipalImpl("bob"));
+        editors.addMember(seniors);
+        seniors.addMember(new PrincipalImpl("cid"));
+        seniors.addMember(new PrincipalImpl("dan"));
+        blocked.addMember(new PrincipalImpl("bob"));
+        blocked.addMember(new PrincipalImpl("dan"));
+
+        AclImpl acl = new AclImpl(owner, "/table");
+        acl.addEntry(owner, entry(editors, false, "v", "i", "u"));
+        acl.addEntry(owner, entry(seniors, false, "d"));
+        acl.addEntry(owner, entry(blocked, true, "u", "d"));
+        acl.addEntry(owner, entry(new PrincipalImpl("dan"), false, "u"));
+        acl.addEntry(owner, entry(new PrincipalImpl("ann"), true, "i"));
+        acl.addEntry(owner, entry(new PrincipalImpl("eve"), false, "v"));
+
+        MembershipIndex membership = new MembershipIndex();
+        membership.addGroups(Arrays.<Group>asList(editors, seniors, blocked));
+        AclDecisionTable table = new AclDecisionTable(acl, membership);
+
+        for (String user : Arrays.asList("ann", "bob", "cid", "dan", "eve", "owner", "nobody")) {
+            assertEquals(user, mask(acl.getPermissions(new PrincipalImpl(user))), table.getMask(user));
+        }
+        assertEquals(mask("v", "u"), table.getMask("ann"));
+        assertEquals(mask("v", "i"), table.getMask("bob"));
+        assertEquals(mask("v", "i", "u", "d"), table.getMask("cid"));
+        // the user's own entry overrides the denial through a group
+        assertEquals(mask("v", "i", "u"), table.getMask("dan"));
+        assertEquals(mask("v"), table.getMask("eve"));
+        assertEquals(0L, table.getMask("nobody"));
+    }
+
+    private static MembershipIndex roleIndex(String... occupants) {
+        MembershipIndex membership = new MembershipIndex();
+        membership.addRoles(Collections.singletonMap("reporters", Arrays.asList(occupants)));
+        return membership;
+    }
+
+    @Test
+    public void roleEntriesAreCombinedWithTheRolesOfTheUser() throws Exception {
+        MembershipIndex membership = roleIndex();
+        AclDecisionTable table = new AclDecisionTable(buildAcl(membership), membership);
+        assertTrue(table.hasRoleEntries());
+        assertEquals(mask("v", "i"), table.getMask("heinlja", Arrays.asList("nfp", "reporters")));
+        assertEquals(0L, table.getMask("heinlja", Arrays.asList("nfp")));
+        // the role entry adds to the user's own entry
+        assertEquals(mask("u", "v", "i"), table.getMask("jensen", Arrays.asList("reporters")));
+        // a permission denied to the user is not granted through the role
+        assertEquals(mask("v"), table.getMask("anni", Arrays.asList("reporters")));
+    }
+
+    @Test
+    public void lazyRolesGiveTheSameMasksAsOccupants() throws Exception {
+        MembershipIndex eager = roleIndex("jensen", "anni", "heinlja");
+        AclDecisionTable eagerTable = new AclDecisionTable(buildAcl(eager), eager);
+        MembershipIndex lazy = roleIndex();
+        AclDecisionTable lazyTable = new AclDecisionTable(buildAcl(lazy), lazy);
+
+        for (String user : Arrays.asList("jensen", "anni", "heinlja")) {
+            assertEquals(user, eagerTable.getMask(user),
+                    lazyTable.getMask(user, Arrays.asList("reporters")));
+        }
+        assertEquals(eagerTable.getMask("owner"), lazyTable.getMask("owner", Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void noRoleEntries() throws Exception {
+        PrincipalImpl owner = new PrincipalImpl("owner");
+        AclImpl acl = new AclImpl(owner, "/plain");
+        AclEntry jensen = new AclEntryImpl(new PrincipalImpl("jensen"));
+        jensen.addPermission(new PermissionImpl("u"));
+        acl.addEntry(owner, jensen);
+
+        AclDecisionTable table = new AclDecisionTable(acl, new MembershipIndex());
+        assertFalse(table.hasRoleEntries());
+        assertEquals(mask("u"), table.getMask("jensen"));
+    }
+}
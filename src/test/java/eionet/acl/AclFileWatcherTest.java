@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the watcher collects changes until the files are quiet and then
+ * reads the changed ACLs again or reloads everything.
+ */
+public class AclFileWatcherTest {
+
+    /** Longest wait for the watcher to apply changes. */
+    private static final long APPLY_TIMEOUT = AclFileWatcher.MAX_DELAY_MILLIS * 2;
+
+    private File folder;
+    private File groupsFile;
+    private AclFileWatcher watcher;
+
+    /** "all" for a full reload, else the paths read again. */
+    private final BlockingQueue<String> reloads = new LinkedBlockingQueue<String>();
+
+    @Before
+    public void startWatcher() throws Exception {
+        folder = Files.createTempDirectory("watched").toFile();
+        groupsFile = new File(folder, "acl.group");
+        write(groupsFile, "<groups/>");
+        write(new File(folder, "_kept.acl"), "user:jensen:v\n");
+        watcher = new AclFileWatcher(folder.getPath(), groupsFile.getPath(), null, new AclFileWatcher.Reloader() {
+            @Override
+            public void reloadAll() {
+                reloads.add("all");
+            }
+
+            @Override
+            public void reloadAcls(Set<String> readPaths) {
+                reloads.add(readPaths.toString());
+            }
+        });
+        Thread thread = new Thread(watcher, "acl-file-watcher-test");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopWatcher() {
+        watcher.close();
+        for (File f : folder.listFiles()) {
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    private String nextReload() throws InterruptedException {
+        return reloads.poll(APPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void assertNoMoreReloads() throws InterruptedException {
+        assertNull(reloads.poll(AclFileWatcher.DEBOUNCE_MILLIS * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void waitIsCutShortByTheMaximumDelay() {
+        long first = 1000000L;
+        assertEquals(AclFileWatcher.DEBOUNCE_MILLIS, AclFileWatcher.waitMillis(first, first));
+        assertEquals(AclFileWatcher.DEBOUNCE_MILLIS,
+                AclFileWatcher.waitMillis(first, first + AclFileWatcher.MAX_DELAY_MILLIS - AclFileWatcher.DEBOUNCE_MILLIS));
+        assertEquals(100L, AclFileWatcher.waitMillis(first, first + AclFileWatcher.MAX_DELAY_MILLIS - 100L));
+        assertEquals(0L, AclFileWatcher.waitMillis(first, first + AclFileWatcher.MAX_DELAY_MILLIS));
+    }
+
+    @Test
+    public void burstOfEditsIsReadAgainOnce() throws Exception {
+        write(new File(folder, "_a.acl"), "user:jensen:v\n");
+        write(new File(folder, "_b.acl"), "user:jensen:i\n");
+        write(new File(folder, "_b_c.acl.xml"), "<?xml version=\"1.0\"?>\n<acl/>\n");
+        write(new File(folder, "_a.acl"), "user:jensen:u\n");
+
+        assertEquals("[/a, /b, /b/c]", nextReload());
+        assertNoMoreReloads();
+    }
+
+    @Test
+    public void deletedAclReloadsEverything() throws Exception {
+        new File(folder, "_kept.acl").delete();
+        assertEquals("all", nextReload());
+        assertNoMoreReloads();
+    }
+
+    @Test
+    public void editedGroupsFileReloadsEverything() throws Exception {
+        write(new File(folder, "_a.acl"), "user:jensen:v\n");
+        write(groupsFile, "<groups></groups>");
+        assertEquals("all", nextReload());
+        assertNoMoreReloads();
+    }
+
+    @Test
+    public void otherFilesAreIgnored() throws Exception {
+        write(new File(folder, "notes.txt"), "not an ACL");
+        assertNoMoreReloads();
+
+        write(new File(folder, "_kept.acl"), "user:jensen:x\n");
+        assertEquals("[/kept]", nextReload());
+    }
+}
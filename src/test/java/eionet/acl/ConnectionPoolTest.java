@@ -0,0 +1,241 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test borrowing, validation and the borrow timeout of the connection pool,
+ * against a driver that only keeps count of its connections.
+ */
+public class ConnectionPoolTest {
+
+    private static final String URL = "jdbc:pooltest:acl";
+
+    /** State of one connection opened by the driver. */
+    static final class Physical implements InvocationHandler {
+        boolean closed = false;
+        boolean valid = true;
+        boolean autoCommit = true;
+        int rollbacks = 0;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+            } else if (name.equals("isClosed")) {
+                return closed;
+            } else if (name.equals("isValid")) {
+                return valid && !closed;
+            } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean) args[0];
+            } else if (name.equals("rollback")) {
+                rollbacks++;
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+    }
+
+    /** Driver for URL, opening a new Physical connection on every connect. */
+    public static final class CountingDriver implements Driver {
+        static final List<Physical> OPENED = new CopyOnWriteArrayList<Physical>();
+
+        static {
+            try {
+                DriverManager.registerDriver(new CountingDriver());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            Physical physical = new Physical();
+            OPENED.add(physical);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, physical);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:pooltest:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private static ConnectionPool pool(int maxSize, long borrowTimeout) throws Exception {
+        return new ConnectionPool(CountingDriver.class.getName(), URL, "acl", "acl", maxSize, borrowTimeout);
+    }
+
+    @Before
+    public void clearDriver() throws Exception {
+        Class.forName(CountingDriver.class.getName());
+        CountingDriver.OPENED.clear();
+    }
+
+    @Test
+    public void closedConnectionIsBorrowedAgain() throws Exception {
+        ConnectionPool pool = pool(2, 1000L);
+        Connection first = pool.getConnection();
+        first.close();
+        Connection second = pool.getConnection();
+        second.close();
+
+        assertEquals(1, CountingDriver.OPENED.size());
+        assertFalse(CountingDriver.OPENED.get(0).closed);
+        assertTrue(first.isClosed());
+        try {
+            first.getAutoCommit();
+            fail("A closed connection must not be usable");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void connectionsInUseAreNotShared() throws Exception {
+        ConnectionPool pool = pool(2, 1000L);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        assertEquals(2, CountingDriver.OPENED.size());
+        first.close();
+        second.close();
+        pool.getConnection().close();
+        assertEquals(2, CountingDriver.OPENED.size());
+    }
+
+    @Test
+    public void borrowTimesOutWhenAllConnectionsAreInUse() throws Exception {
+        ConnectionPool pool = pool(1, 50L);
+        Connection first = pool.getConnection();
+        long start = System.nanoTime();
+        try {
+            pool.getConnection();
+            fail("Expected the borrow to time out");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No free database connection"));
+        }
+        assertTrue(System.nanoTime() - start >= 50L * 1000000L);
+
+        // a connection given back can be borrowed again
+        first.close();
+        pool.getConnection().close();
+        assertEquals(1, CountingDriver.OPENED.size());
+    }
+
+    @Test
+    public void closingTwiceReturnsTheConnectionOnce() throws Exception {
+        ConnectionPool pool = pool(1, 50L);
+        Connection first = pool.getConnection();
+        first.close();
+        first.close();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("Expected the borrow to time out");
+        } catch (SQLException e) {
+            // expected, the only connection is in use
+        }
+        second.close();
+    }
+
+    @Test
+    public void brokenIdleConnectionIsReplaced() throws Exception {
+        ConnectionPool pool = pool(1, 1000L);
+        pool.getConnection().close();
+        Physical broken = CountingDriver.OPENED.get(0);
+        broken.valid = false;
+
+        pool.getConnection().close();
+        assertEquals(2, CountingDriver.OPENED.size());
+        assertTrue(broken.closed);
+        assertFalse(CountingDriver.OPENED.get(1).closed);
+    }
+
+    @Test
+    public void unfinishedTransactionIsRolledBack() throws Exception {
+        ConnectionPool pool = pool(1, 1000L);
+        Connection con = pool.getConnection();
+        con.setAutoCommit(false);
+        con.close();
+
+        Physical physical = CountingDriver.OPENED.get(0);
+        assertEquals(1, physical.rollbacks);
+        assertTrue(physical.autoCommit);
+        con = pool.getConnection();
+        assertTrue(con.getAutoCommit());
+        con.close();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the binary cache of ACL file contents.
+ */
+public class FileModelCacheTest {
+
+    private File cacheFile;
+    private File aclFile;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = File.createTempFile("aclcache", ".bin");
+        cacheFile.delete();
+        aclFile = File.createTempFile("_cached", ".acl");
+        FileOutputStream out = new FileOutputStream(aclFile);
+        out.write("user:jensen:u,c\n".getBytes("UTF-8"));
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+        aclFile.delete();
+    }
+
+    @Test
+    public void parsedAclSurvivesRestart() {
+        FileModelCache cache = FileModelCache.open(cacheFile);
+        byte[] hash = AclFileManifest.hash("user:jensen:u,c\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.getAcl(aclFile, hash));
+
+        ArrayList<String> rows = new ArrayList<String>(Arrays.asList("user:jensen:u,c"));
+        cache.putAcl(aclFile, hash, new ParsedAcl("/cached", null, rows));
+        cache.save();
+
+        ParsedAcl parsed = FileModelCache.open(cacheFile).getAcl(aclFile, hash);
+        assertNotNull(parsed);
+        assertEquals("/cached", parsed.name);
+        assertNull(parsed.description);
+        assertEquals(rows, parsed.rows);
+    }
+
+    @Test
+    public void changedFileIsNotServed() {
+        FileModelCache cache = FileModelCache.open(cacheFile);
+        byte[] hash = AclFileManifest.hash("user:jensen:u,c\n".getBytes(StandardCharsets.UTF_8));
+        cache.putAcl(aclFile, hash, new ParsedAcl("/cached", null, new ArrayList<String>()));
+
+        byte[] changed = AclFileManifest.hash("user:jensen:u\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.getAcl(aclFile, changed));
+
+        cache.retainAcls(Collections.<File>emptyList());
+        assertNull(cache.getAcl(aclFile, hash));
+    }
+
+    @Test
+    public void damagedCacheIsIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(cacheFile);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        assertNull(FileModelCache.open(cacheFile).getAcl(aclFile, new byte[32]));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PrincipalImpl;
+import org.junit.Test;
+
+/**
+ * Test the member list and the cached membership closure of groups.
+ */
+public class GroupImplTest {
+
+    private static List<Principal> list(Enumeration<? extends Principal> members) {
+        List<Principal> result = new ArrayList<Principal>();
+        result.addAll(Collections.list(members));
+        return result;
+    }
+
+    @Test
+    public void membersFollowChanges() {
+        GroupImpl group = new GroupImpl("admins");
+        Principal ann = new PrincipalImpl("ann");
+        Principal bob = new PrincipalImpl("bob");
+        group.addMember(ann);
+        Enumeration<? extends Principal> before = group.members();
+        assertEquals(list(group.members()), list(group.members()));
+
+        group.addMember(bob);
+        assertEquals(2, list(group.members()).size());
+        assertEquals(Collections.singletonList(ann), list(before));
+
+        group.removeMember(ann);
+        assertEquals(Collections.singletonList(bob), list(group.members()));
+    }
+
+    @Test
+    public void closureNoticesChangeInNestedGroup() {
+        GroupImpl outer = new GroupImpl("outer");
+        GroupImpl inner = new GroupImpl("inner");
+        Principal ann = new PrincipalImpl("ann");
+        outer.addMember(inner);
+        assertFalse(outer.isMember(ann));
+
+        inner.addMember(ann);
+        assertTrue(outer.isMember(ann));
+
+        inner.removeMember(ann);
+        assertFalse(outer.isMember(ann));
+    }
+
+    @Test
+    public void closureNoticesChangeTwoLevelsDown() {
+        GroupImpl top = new GroupImpl("top");
+        GroupImpl middle = new GroupImpl("middle");
+        GroupImpl bottom = new GroupImpl("bottom");
+        Principal ann = new PrincipalImpl("ann");
+        top.addMember(middle);
+        middle.addMember(bottom);
+        assertFalse(top.isMember(ann));
+
+        bottom.addMember(ann);
+        assertTrue(top.isMember(ann));
+        assertTrue(middle.isMember(ann));
+    }
+
+    @Test
+    public void nestedGroupCycleTerminates() {
+        GroupImpl first = new GroupImpl("first");
+        GroupImpl second = new GroupImpl("second");
+        Principal ann = new PrincipalImpl("ann");
+        Principal bob = new PrincipalImpl("bob");
+        first.addMember(second);
+        second.addMember(first);
+        second.addMember(ann);
+
+        assertTrue(first.isMember(ann));
+        assertFalse(first.isMember(bob));
+        assertFalse(second.isMember(bob));
+
+        first.addMember(bob);
+        assertTrue(second.isMember(bob));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import eionet.acl.impl.GroupImpl;
+import eionet.acl.impl.PrincipalImpl;
+import org.junit.Test;
+
+/**
+ * Test the membership index while loading, after publishing and in copies.
+ */
+public class MembershipIndexTest {
+
+    private static List<Group> groups(int count, String... members) {
+        List<Group> groups = new ArrayList<Group>();
+        for (int i = 0; i < count; i++) {
+            GroupImpl g = new GroupImpl("group" + i);
+            for (String m : members) {
+                g.addMember(new PrincipalImpl(m));
+            }
+            groups.add(g);
+        }
+        return groups;
+    }
+
+    @Test
+    public void memberSetIsFilledInPlaceWhileLoading() {
+        MembershipIndex index = new MembershipIndex();
+        List<Group> groups = groups(1000, "jensen");
+        index.addGroups(groups.subList(0, 1));
+        Set<Group> loading = index.groupsOf("jensen");
+        index.addGroups(groups.subList(1, groups.size()));
+        assertSame(loading, index.groupsOf("jensen"));
+        assertEquals(1000, index.groupsOf("jensen").size());
+    }
+
+    @Test
+    public void publishedSetsAreUnmodifiableAndReplacedOnChange() {
+        MembershipIndex index = new MembershipIndex();
+        List<Group> groups = groups(3, "jensen", "anni");
+        index.addGroups(groups.subList(0, 2));
+        index.publish();
+        Set<Group> published = index.groupsOf("jensen");
+        try {
+            published.add(groups.get(2));
+            fail("published set must be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        index.addGroups(groups.subList(2, 3));
+        assertEquals(2, published.size());
+        assertEquals(3, index.groupsOf("jensen").size());
+        assertNotSame(published, index.groupsOf("jensen"));
+    }
+
+    @Test
+    public void copyDoesNotChangeTheOriginal() {
+        MembershipIndex index = new MembershipIndex();
+        List<Group> groups = groups(2, "jensen");
+        index.addGroups(groups.subList(0, 1));
+        index.publish();
+
+        MembershipIndex copy = index.copy();
+        copy.addGroups(groups.subList(1, 2));
+        GroupImpl other = new GroupImpl("other");
+        other.addMember(new PrincipalImpl("anni"));
+        copy.addGroups(Arrays.<Group>asList(other));
+        copy.publish();
+
+        assertEquals(1, index.groupsOf("jensen").size());
+        assertTrue(index.groupsOf("anni").isEmpty());
+        assertEquals(2, copy.groupsOf("jensen").size());
+        assertTrue(copy.groupsOf("anni").contains(other));
+    }
+}
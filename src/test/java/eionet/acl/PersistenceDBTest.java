@@ -0,0 +1,446 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test reading and writing ACLs in the database tables.
+ */
+public class PersistenceDBTest extends ACLDatabaseTestCase {
+
+    /** ACL_IDs of the ACLs a test has created. */
+    private final List<Integer> created = new ArrayList<Integer>();
+
+    @Before
+    public void setUp() throws Exception {
+        AclProperties aclProperties = AclPropertiesBuilder.AclPropertiesBuilder("acl.properties");
+        AccessController.initAccessController(aclProperties);
+    }
+
+    @After
+    public void removeCreated() throws SQLException {
+        PreparedStatement rows = connection.prepareStatement("DELETE FROM ACL_ROWS WHERE ACL_ID=?");
+        PreparedStatement acls = connection.prepareStatement("DELETE FROM ACLS WHERE ACL_ID=?");
+        try {
+            for (int aclId : created) {
+                rows.setInt(1, aclId);
+                rows.executeUpdate();
+                acls.setInt(1, aclId);
+                acls.executeUpdate();
+            }
+        } finally {
+            rows.close();
+            acls.close();
+        }
+    }
+
+    /**
+     * Inserts an ACL straight into the table.
+     *
+     * @return ACL_ID
+     */
+    private int insertAcl(String parentName, String aclName, String owner, String description) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO ACLS (ACL_NAME, PARENT_NAME, OWNER, DESCRIPTION) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS);
+        try {
+            ps.setString(1, aclName);
+            ps.setString(2, parentName);
+            ps.setString(3, owner);
+            ps.setString(4, description);
+            ps.executeUpdate();
+            ResultSet keys = ps.getGeneratedKeys();
+            keys.next();
+            int aclId = keys.getInt(1);
+            created.add(aclId);
+            return aclId;
+        } finally {
+            ps.close();
+        }
+    }
+
+    private void insertRow(int aclId, String type, String entryType, String principal, String permissions)
+            throws SQLException {
+        insertRow(aclId, type, entryType, principal, permissions, 1);
+    }
+
+    /**
+     * Inserts a row with the given STATUS, which a row written by PersistenceDB doesn't have.
+     */
+    private void insertRow(int aclId, String type, String entryType, String principal, String permissions,
+            int status) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO ACL_ROWS (ACL_ID, TYPE, ENTRY_TYPE, PRINCIPAL, PERMISSIONS, STATUS) VALUES (?, ?, ?, ?, ?, ?)");
+        try {
+            ps.setInt(1, aclId);
+            ps.setString(2, type);
+            ps.setString(3, entryType);
+            ps.setString(4, principal);
+            ps.setString(5, permissions);
+            ps.setInt(6, status);
+            ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Returns the stored rows of an ACL as sorted "ENTRY_TYPE:TYPE:PRINCIPAL:PERMISSIONS" strings.
+     */
+    private static List<String> storedRows(int aclId) throws SQLException {
+        return storedRows(aclId, false);
+    }
+
+    /**
+     * Returns the stored rows of an ACL, with ":STATUS" appended if withStatus is true.
+     */
+    private static List<String> storedRows(int aclId, boolean withStatus) throws SQLException {
+        List<String> result = new ArrayList<String>();
+        PreparedStatement ps = connection.prepareStatement(
+                "SELECT ENTRY_TYPE, TYPE, PRINCIPAL, PERMISSIONS, STATUS FROM ACL_ROWS WHERE ACL_ID=?");
+        try {
+            ps.setInt(1, aclId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getString(1) + ":" + rs.getString(2) + ":" + rs.getString(3) + ":" + rs.getString(4)
+                        + (withStatus ? ":" + rs.getInt(5) : ""));
+            }
+            rs.close();
+        } finally {
+            ps.close();
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the ACL_ID of an ACL, or -1 if it is not in the table.
+     */
+    private static int aclIdOf(String parentName, String aclName) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("SELECT ACL_ID FROM ACLS WHERE PARENT_NAME=? AND ACL_NAME=?");
+        try {
+            ps.setString(1, parentName);
+            ps.setString(2, aclName);
+            ResultSet rs = ps.executeQuery();
+            int aclId = rs.next() ? rs.getInt(1) : -1;
+            rs.close();
+            return aclId;
+        } finally {
+            ps.close();
+        }
+    }
+
+    private static Hashtable<String, String> entry(String acltype, String type, String id, String perms) {
+        Hashtable<String, String> h = new Hashtable<String, String>();
+        h.put("acltype", acltype);
+        h.put("type", type);
+        h.put("id", id);
+        h.put("perms", perms);
+        return h;
+    }
+
+    /**
+     * Returns the entry rows of an ACL as sorted "acltype:type:id:perms" strings,
+     * the permissions sorted too.
+     */
+    static List<String> rows(AccessControlListIF acl) throws SignOnException {
+        List<String> result = new ArrayList<String>();
+        for (Object row : acl.getEntryRows()) {
+            Hashtable<?, ?> e = (Hashtable<?, ?>) row;
+            String[] perms = ((String) e.get("perms")).split(",");
+            Arrays.sort(perms);
+            result.add(e.get("acltype") + ":" + e.get("type") + ":" + e.get("id") + ":" + StringUtils.join(perms, ","));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    public void joinedLoadKeepsRowsWithTheirAcl() throws Exception {
+        int withRows = insertAcl("/", "joined", "jaanus1", "joined description");
+        insertRow(withRows, "object", "user", "jensen", "v,i");
+        insertRow(withRows, "object", "localgroup", "app_user", "x");
+        insertRow(withRows, "doc", "user", "owner", "v,d");
+        insertAcl("/joined", "empty", "jaanus2", "no rows");
+        int other = insertAcl("/joined", "other", "jaanus1", "");
+        insertRow(other, "object", "user", "risto", "u");
+
+        HashMap<String, AccessControlListIF> acls = new HashMap<String, AccessControlListIF>();
+        new PersistenceDB().initAcls(acls);
+
+        AccessControlListIF joined = acls.get("/joined");
+        assertNotNull(joined);
+        assertEquals("joined description", joined.getDescription());
+        assertTrue(joined.isOwner("jaanus1"));
+        assertTrue(rows(joined).containsAll(Arrays.asList("object:localgroup:app_user:x", "object:user:jensen:i,v")));
+        assertEquals(1, joined.getDOCAndDCCEntries().size());
+        assertTrue(joined.checkPermission("jensen", "i"));
+        assertTrue(joined.checkPermission("risto", "x"));
+
+        AccessControlListIF empty = acls.get("/joined/empty");
+        assertNotNull("An ACL without rows must be read too", empty);
+        assertEquals("no rows", empty.getDescription());
+        assertTrue(empty.isOwner("jaanus2"));
+        assertEquals(Collections.<String>emptyList(), rows(empty));
+
+        AccessControlListIF otherAcl = acls.get("/joined/other");
+        assertEquals(Arrays.asList("object:user:risto:u"), rows(otherAcl));
+        assertTrue(!otherAcl.checkPermission("jensen", "v"));
+    }
+
+    @Test
+    public void joinedLoadMatchesSingleRead() throws Exception {
+        int withRows = insertAcl("/", "single", "jaanus1", "single description");
+        insertRow(withRows, "object", "user", "jensen", "v,i");
+        insertRow(withRows, "object", "localgroup", "app_user", "x");
+        insertRow(withRows, "dcc", "localgroup", "app_user", "v");
+        insertAcl("/single", "empty", "jaanus2", "");
+
+        PersistenceDB db = new PersistenceDB();
+        HashMap<String, AccessControlListIF> acls = new HashMap<String, AccessControlListIF>();
+        db.initAcls(acls);
+        for (String path : Arrays.asList("/single", "/single/empty")) {
+            AccessControlListIF single = db.readAcl(path);
+            assertEquals(path, rows(single), rows(acls.get(path)));
+            assertEquals(path, single.getDescription(), acls.get(path).getDescription());
+        }
+    }
+
+    @Test
+    public void joinedLoadReadsMoreRowsThanOneFetch() throws Exception {
+        int count = 2500;
+        for (int i = 0; i < count; i++) {
+            int aclId = insertAcl("/many", "acl" + i, "jaanus1", "");
+            insertRow(aclId, "object", "user", "user" + i, "v");
+            if (i % 2 == 0) {
+                insertRow(aclId, "object", "user", "even", "i");
+            }
+        }
+
+        HashMap<String, AccessControlListIF> acls = new HashMap<String, AccessControlListIF>();
+        new PersistenceDB().initAcls(acls);
+        for (int i = 0; i < count; i++) {
+            AccessControlListIF acl = acls.get("/many/acl" + i);
+            assertNotNull("/many/acl" + i, acl);
+            List<String> expected = new ArrayList<String>();
+            if (i % 2 == 0) {
+                expected.add("object:user:even:i");
+            }
+            expected.add("object:user:user" + i + ":v");
+            Collections.sort(expected);
+            assertEquals("/many/acl" + i, expected, rows(acl));
+        }
+    }
+
+    @Test
+    public void failedWriteLeavesTheRowsAsTheyWere() throws Exception {
+        int aclId = insertAcl("/", "txnwrite", "jaanus1", "");
+        insertRow(aclId, "object", "user", "jensen", "v,i");
+        insertRow(aclId, "object", "localgroup", "app_user", "x");
+        List<String> before = storedRows(aclId);
+
+        // the row for risto is written before the one whose principal doesn't fit in the column
+        List<Hashtable<String, String>> entries = new ArrayList<Hashtable<String, String>>();
+        entries.add(entry("object", "user", "risto", "u"));
+        entries.add(entry("object", "user", "principal-longer-than-the-column", "v"));
+        try {
+            new PersistenceDB().writeAcl("/txnwrite", new HashMap<String, String>(), entries);
+            fail("Expected the write to fail");
+        } catch (SignOnException e) {
+            // expected
+        }
+        assertEquals(before, storedRows(aclId));
+    }
+
+    @Test
+    public void failedAddLeavesNoAcl() throws Exception {
+        String owner = "owner-longer-than-the-principal-column";
+        try {
+            new PersistenceDB().addAcl("/txnadd", owner, "not added");
+            fail("Expected the owner row to be too long");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(-1, aclIdOf("/", "txnadd"));
+    }
+
+    @Test
+    public void removeAndRenameWorkOnOneAcl() throws Exception {
+        int kept = insertAcl("/txn", "kept", "jaanus1", "");
+        insertRow(kept, "object", "user", "jensen", "v");
+        int renamed = insertAcl("/txn", "renamed", "jaanus1", "");
+        insertRow(renamed, "object", "user", "risto", "u");
+
+        PersistenceDB db = new PersistenceDB();
+        db.renameAcl("/txn/renamed", "/txn/moved");
+        assertEquals(-1, aclIdOf("/txn", "renamed"));
+        assertEquals(renamed, aclIdOf("/txn", "moved"));
+        assertEquals(Arrays.asList("user:object:risto:u"), storedRows(renamed));
+
+        db.removeAcl("/txn/moved");
+        assertEquals(-1, aclIdOf("/txn", "moved"));
+        assertEquals(Collections.<String>emptyList(), storedRows(renamed));
+        assertEquals(Arrays.asList("user:object:jensen:v"), storedRows(kept));
+    }
+
+    @Test
+    public void writeTouchesOnlyChangedRows() throws Exception {
+        int aclId = insertAcl("/", "diffwrite", "jaanus1", "");
+        insertRow(aclId, "object", "user", "jensen", "v,i", 7);
+        insertRow(aclId, "object", "localgroup", "app_user", "x", 7);
+        insertRow(aclId, "object", "user", "risto", "u", 7);
+        insertRow(aclId, "doc", "user", "owner", "d", 7);
+
+        List<Hashtable<String, String>> entries = new ArrayList<Hashtable<String, String>>();
+        entries.add(entry("object", "user", "jensen", "v,i"));
+        entries.add(entry("object", "localgroup", "app_user", "x,v"));
+        entries.add(entry("doc", "user", "owner", "d"));
+        entries.add(entry("object", "user", "anni", "d"));
+        new PersistenceDB().writeAcl("/diffwrite", new HashMap<String, String>(), entries);
+
+        // unchanged rows keep their STATUS, the changed row is updated in place, risto is gone
+        assertEquals(Arrays.asList(
+                "localgroup:object:app_user:x,v:7",
+                "user:doc:owner:d:7",
+                "user:object:anni:d:1",
+                "user:object:jensen:v,i:7"), storedRows(aclId, true));
+    }
+
+    @Test
+    public void unchangedWriteLeavesAllRows() throws Exception {
+        int aclId = insertAcl("/", "samewrite", "jaanus1", "");
+        insertRow(aclId, "object", "user", "jensen", "v,i", 7);
+        insertRow(aclId, "object", "localgroup", "app_user", "x", 7);
+        List<String> before = storedRows(aclId, true);
+
+        List<Hashtable<String, String>> entries = new ArrayList<Hashtable<String, String>>();
+        entries.add(entry("object", "localgroup", "app_user", "x"));
+        entries.add(entry("object", "user", "jensen", "v,i"));
+        new PersistenceDB().writeAcl("/samewrite", new HashMap<String, String>(), entries);
+
+        assertEquals(before, storedRows(aclId, true));
+    }
+
+    @Test
+    public void duplicateRowsAreWrittenOnce() throws Exception {
+        int aclId = insertAcl("/", "dupwrite", "jaanus1", "");
+        insertRow(aclId, "object", "user", "jensen", "v", 7);
+        insertRow(aclId, "object", "user", "jensen", "v,i", 7);
+
+        List<Hashtable<String, String>> entries = new ArrayList<Hashtable<String, String>>();
+        entries.add(entry("object", "user", "jensen", "v,i"));
+        new PersistenceDB().writeAcl("/dupwrite", new HashMap<String, String>(), entries);
+
+        assertEquals(Arrays.asList("user:object:jensen:v,i:1"), storedRows(aclId, true));
+    }
+
+    @Test
+    public void writtenAclReadsBackAfterReload() throws Exception {
+        String aclPath = "/whatever/roundtrip";
+        AccessController.addAcl(aclPath, "jaanus1", "round trip");
+        created.add(aclIdOf("/whatever", "roundtrip"));
+
+        Vector<Hashtable<String, String>> entries = new Vector<Hashtable<String, String>>();
+        entries.add(entry("object", "user", "jensen", "v,i"));
+        entries.add(entry("object", "localgroup", "app_user", "x"));
+        entries.add(entry("object", "user", "risto", "u,d"));
+        AccessController.getAcl(aclPath).setAclEntries(entries);
+        AccessController.reset();
+        AccessControlListIF acl = AccessController.getAcl(aclPath);
+        List<String> written = rows(acl);
+        assertEquals(Arrays.asList("object:localgroup:app_user:x", "object:user:jensen:i,v",
+                "object:user:risto:d,u"), written);
+        assertEquals("round trip", acl.getDescription());
+        assertTrue(acl.checkPermission("risto", "x"));
+
+        // writing what was read back changes nothing
+        List<String> stored = storedRows(aclIdOf("/whatever", "roundtrip"), true);
+        Vector<Hashtable<String, String>> readBack = new Vector<Hashtable<String, String>>();
+        for (Object row : acl.getEntryRows()) {
+            @SuppressWarnings("unchecked")
+            Hashtable<String, String> e = (Hashtable<String, String>) row;
+            readBack.add(e);
+        }
+        acl.setAclEntries(readBack);
+        assertEquals(stored, storedRows(aclIdOf("/whatever", "roundtrip"), true));
+        AccessController.reset();
+        assertEquals(written, rows(AccessController.getAcl(aclPath)));
+    }
+
+    @Test
+    public void addedRowsBelongToTheNewAcl() throws Exception {
+        final PersistenceDB db = new PersistenceDB();
+        final int count = 8;
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            threads.add(new Thread(() -> {
+                try {
+                    db.addAcl("/genkey" + n, "owner" + n, "generated key " + n);
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < count; i++) {
+            int aclId = aclIdOf("/", "genkey" + i);
+            if (aclId != -1) {
+                created.add(aclId);
+            }
+        }
+        assertEquals(Collections.<Exception>emptyList(), failures);
+
+        for (int i = 0; i < count; i++) {
+            int aclId = aclIdOf("/", "genkey" + i);
+            List<String> rows = storedRows(aclId);
+            assertEquals("/genkey" + i + " " + rows, 1, rows.size());
+            assertTrue("/genkey" + i + " " + rows, rows.get(0).startsWith("user:object:owner" + i + ":"));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test reading folders of ACL files, on the calling thread and in parallel.
+ */
+public class PersistenceFileTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        AccessController.initAccessController(AclPropertiesBuilder.AclPropertiesBuilder("acl.properties"));
+        // the ACLs are built against the groups of the loaded snapshot
+        AccessController.getAcl("/");
+    }
+
+    @After
+    public void removeFolder() throws Exception {
+        if (folder != null) {
+            for (File f : folder.listFiles()) {
+                f.delete();
+            }
+            folder.delete();
+        }
+        AccessController.initAccessController(AclPropertiesBuilder.AclPropertiesBuilder("acl.properties"));
+    }
+
+    @Test
+    public void parserThreadsFollowTheThreshold() {
+        int threshold = PersistenceFile.PARALLEL_PARSE_THRESHOLD;
+        assertEquals(0, PersistenceFile.parserThreads(0, 8));
+        assertEquals(0, PersistenceFile.parserThreads(threshold - 1, 8));
+        assertEquals(1, PersistenceFile.parserThreads(threshold, 8));
+        assertEquals(1, PersistenceFile.parserThreads(threshold * 2 - 1, 8));
+        assertEquals(3, PersistenceFile.parserThreads(threshold * 3, 8));
+        assertEquals(8, PersistenceFile.parserThreads(threshold * 100, 8));
+        assertEquals(1, PersistenceFile.parserThreads(threshold * 100, 1));
+    }
+
+    /**
+     * Writes count ACL files, /acl0 to /acl(count-1), and returns a PersistenceFile reading them.
+     */
+    private PersistenceFile writeAcls(int count) throws Exception {
+        folder = Files.createTempDirectory("acls").toFile();
+        for (int i = 0; i < count; i++) {
+            String content = (i % 2 == 0)
+                    ? "user:user" + i + ":v,i\nlocalgroup:app_user:x\ndescription:acl number " + i + ":\n"
+                    : "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<acl description=\"acl number " + i + "\">\n"
+                    + "<entries><entry type=\"object\"><principal id=\"user" + i + "\" type=\"user\"/>"
+                    + "<permissions><permission id=\"u\"/></permissions></entry></entries>\n</acl>\n";
+            Files.write(new File(folder, "_acl" + i + ".acl").toPath(), content.getBytes("UTF-8"));
+        }
+        AclProperties aclProperties = AclPropertiesBuilder.AclPropertiesBuilder("acl.properties");
+        aclProperties.setFileAclfolder(folder.getPath());
+        AccessController.initAccessController(aclProperties);
+        return new PersistenceFile();
+    }
+
+    private static HashMap<String, AccessControlListIF> load(PersistenceFile persistence) throws Exception {
+        HashMap<String, AccessControlListIF> acls = new HashMap<String, AccessControlListIF>();
+        persistence.initAcls(acls);
+        return acls;
+    }
+
+    private static List<String> rows(AccessControlListIF acl) throws SignOnException {
+        List<String> result = new ArrayList<String>();
+        for (Object row : acl.getEntryRows()) {
+            Hashtable<?, ?> e = (Hashtable<?, ?>) row;
+            result.add(e.get("type") + ":" + e.get("id") + ":" + e.get("perms"));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void checkAcls(HashMap<String, AccessControlListIF> acls, int count) throws Exception {
+        assertEquals(count, acls.size());
+        for (int i = 0; i < count; i++) {
+            AccessControlListIF acl = acls.get("/acl" + i);
+            assertNotNull("/acl" + i, acl);
+            assertEquals("/acl" + i, "acl number " + i, acl.getDescription());
+            if (i % 2 == 0) {
+                assertEquals("/acl" + i, Arrays.asList("localgroup:app_user:x", "user:user" + i + ":v,i"), rows(acl));
+                assertTrue(acl.checkPermission("user" + i, "i"));
+            } else {
+                assertEquals("/acl" + i, Collections.singletonList("user:user" + i + ":u"), rows(acl));
+                assertTrue(acl.checkPermission("user" + i, "u"));
+            }
+            assertFalse(acl.checkPermission("user" + (i + 1), "u"));
+        }
+    }
+
+    @Test
+    public void fewFilesAreReadOnTheCallingThread() throws Exception {
+        int count = PersistenceFile.PARALLEL_PARSE_THRESHOLD - 1;
+        checkAcls(load(writeAcls(count)), count);
+    }
+
+    @Test
+    public void manyFilesAreReadInParallelWithTheSameResult() throws Exception {
+        int count = PersistenceFile.PARALLEL_PARSE_THRESHOLD * 5;
+        PersistenceFile persistence = writeAcls(count);
+        checkAcls(load(persistence), count);
+
+        // reading the same files again gives the same ACLs
+        checkAcls(load(persistence), count);
+    }
+}
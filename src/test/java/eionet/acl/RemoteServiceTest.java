@@ -2,6 +2,7 @@ package eionet.acl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -149,7 +150,10 @@ public class RemoteServiceTest extends ACLDatabaseTestCase {
         aclEntries.add(row2);
 
         aclInfo.put("entries", aclEntries);
+        AccessControlListIF rootAcl = AccessController.getAcl("/");
         assertEquals("OK", rs.setAclInfo(aclInfo));
+        // Only the written ACL is re-read, the others are carried over
+        assertSame(rootAcl, AccessController.getAcl("/"));
         assertTrue(AccessController.hasPermission("enriko", "/eeaprojects", "c"));
         assertFalse(AccessController.hasPermission("enriko", "/eeaprojects", "d"));
         // Bring it back to the original
@@ -0,0 +1,231 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import eionet.directory.DirServiceException;
+import org.junit.Test;
+
+/**
+ * Test the shared registry of role occupants.
+ */
+public class RoleRegistryTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    /** Directory answering with the number of the lookup as the only occupant. */
+    private final RoleRegistry.Directory counting = roleName -> {
+        return Collections.singletonList(roleName + "-" + lookups.incrementAndGet());
+    };
+
+    @Test
+    public void occupantsAreKeptWithinTtl() {
+        RoleRegistry registry = new RoleRegistry(counting);
+        registry.setTtl(60000L);
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void withoutTtlEveryRequestReads() {
+        RoleRegistry registry = new RoleRegistry(counting);
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        assertEquals(Arrays.asList("eea-2"), registry.get("eea"));
+    }
+
+    @Test
+    public void staleOccupantsAreServedWhileRefreshing() throws Exception {
+        RoleRegistry registry = new RoleRegistry(counting);
+        registry.setTtl(1L);
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        Thread.sleep(5L);
+        // the stale list comes back at once, the new one after the refresh
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        registry.setTtl(60000L);
+        long end = System.currentTimeMillis() + 5000L;
+        while (lookups.get() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(5L);
+        }
+        Thread.sleep(50L);
+        assertEquals(Arrays.asList("eea-2"), registry.get("eea"));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneLookup() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RoleRegistry registry = new RoleRegistry(roleName -> {
+            lookups.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonList("anni");
+        });
+        final List<?>[] results = new List<?>[2];
+        Thread first = new Thread(() -> results[0] = registry.get("eea"));
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread second = new Thread(() -> results[1] = registry.get("eea"));
+        second.start();
+        Thread.sleep(50L);
+        release.countDown();
+        first.join(5000L);
+        second.join(5000L);
+        assertEquals(1, lookups.get());
+        assertEquals(Arrays.asList("anni"), results[0]);
+        assertEquals(Arrays.asList("anni"), results[1]);
+    }
+
+    @Test
+    public void prefetchReadsRolesConcurrently() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        RoleRegistry registry = new RoleRegistry(roleName -> {
+            lookups.incrementAndGet();
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return Collections.singletonList(roleName + "-occupant");
+        });
+        registry.setTtl(60000L);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            names.add("role" + i);
+        }
+        names.add("role0");
+        Map<String, List<String>> occupants = registry.prefetch(names);
+        assertEquals(20, occupants.size());
+        assertEquals(Arrays.asList("role7-occupant"), occupants.get("role7"));
+        assertEquals(20, lookups.get());
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= RoleRegistry.PREFETCH_THREADS);
+
+        // known roles aren't read again
+        registry.prefetch(names);
+        assertEquals(20, lookups.get());
+    }
+
+    @Test
+    public void cacheFileIsUsedWhileTheDirectoryIsDown() throws Exception {
+        File cacheFile = File.createTempFile("rolecache", ".bin");
+        try {
+            RoleRegistry first = new RoleRegistry(counting);
+            first.setCacheFile(cacheFile);
+            assertEquals(Arrays.asList("eea-1"), first.get("eea"));
+            first.save();
+
+            final AtomicInteger changes = new AtomicInteger();
+            final CountDownLatch refreshed = new CountDownLatch(1);
+            RoleRegistry second = new RoleRegistry(roleName -> {
+                try {
+                    return Collections.singletonList("anni");
+                } finally {
+                    refreshed.countDown();
+                }
+            });
+            second.setChangeListener(changes::incrementAndGet);
+            second.setCacheFile(cacheFile);
+            // the cached list comes back at once and is read again in the background
+            assertEquals(Arrays.asList("eea-1"), second.get("eea"));
+            assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+            long end = System.currentTimeMillis() + 5000L;
+            while (changes.get() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(5L);
+            }
+            assertEquals(1, changes.get());
+            assertEquals(Arrays.asList("anni"), second.get("eea"));
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    @Test
+    public void idleKeysAreEvicted() throws Exception {
+        RoleRegistry registry = new RoleRegistry(counting);
+        registry.setEvictIdle(true);
+        registry.setTtl(50L);
+        assertEquals(Arrays.asList("anni-1"), registry.get("anni"));
+        Thread.sleep(100L);
+        // asking for another key starts the eviction of the idle one
+        registry.get("jensen");
+        long end = System.currentTimeMillis() + 5000L;
+        while (registry.size() > 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1, registry.size());
+        assertEquals(Arrays.asList("anni-3"), registry.get("anni"));
+    }
+
+    @Test
+    public void changeIsReportedOffTheCallerThread() throws Exception {
+        RoleRegistry registry = new RoleRegistry(counting);
+        final CountDownLatch changed = new CountDownLatch(1);
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger onCaller = new AtomicInteger();
+        registry.setChangeListener(() -> {
+            if (Thread.currentThread() == caller) {
+                onCaller.incrementAndGet();
+            }
+            changed.countDown();
+        });
+        registry.setTtl(1L);
+        registry.get("eea");
+        Thread.sleep(5L);
+        assertEquals(Arrays.asList("eea-1"), registry.get("eea"));
+        assertTrue(changed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, onCaller.get());
+    }
+
+    @Test
+    public void failedLookupIsNotKept() {
+        final AtomicInteger calls = new AtomicInteger();
+        RoleRegistry registry = new RoleRegistry(roleName -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new DirServiceException("directory down");
+            }
+            return Collections.singletonList("anni");
+        });
+        registry.setTtl(60000L);
+        assertEquals(Collections.emptyList(), registry.get("eea"));
+        assertEquals(Arrays.asList("anni"), registry.get("eea"));
+    }
+}
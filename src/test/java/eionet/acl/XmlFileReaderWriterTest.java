@@ -23,10 +23,16 @@
 
 package eionet.acl;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
 import java.security.Principal;
 import eionet.acl.Group;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -59,5 +65,63 @@ public class XmlFileReaderWriterTest {
         assertFalse(rodUserGroup.isMember(kasperenPrin));
     }
 
-}
+    @Test
+    public void parseAclIntoRows() throws SignOnException {
+        ParsedAcl parsed = XmlFileReaderWriter.parseACL("target/test-classes/_dcctest.acl", "/dcctest");
+        assertEquals("/dcctest", parsed.name);
+        assertEquals("/project", parsed.description);
+        assertEquals(11, parsed.rows.size());
+        assertEquals("localgroup:projectmanagers:v,u,i,d:object", parsed.rows.get(0));
+        assertEquals("user:owner:d,c:doc", parsed.rows.get(5));
+        assertEquals("user:authenticated:v,x:dcc", parsed.rows.get(10));
+    }
 
+    @Test
+    public void detectXmlContent() throws Exception {
+        assertTrue(XmlFileReaderWriter.isXmlContent("<?xml version=\"1.0\"?>\n<acl/>".getBytes("UTF-8")));
+        assertTrue(XmlFileReaderWriter.isXmlContent("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<acl/>".getBytes("UTF-8")));
+        assertFalse(XmlFileReaderWriter.isXmlContent("user:jensen:u,c\n".getBytes("UTF-8")));
+        assertFalse(XmlFileReaderWriter.isXmlContent(new byte[0]));
+    }
+
+    private static Hashtable<String, String> entry(String acltype, String type, String id, String perms) {
+        Hashtable<String, String> h = new Hashtable<String, String>();
+        h.put("acltype", acltype);
+        h.put("type", type);
+        h.put("id", id);
+        h.put("perms", perms);
+        return h;
+    }
+
+    private static String contentOf(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    @Test
+    public void unchangedAclFileIsNotWritten() throws Exception {
+        File file = File.createTempFile("_written", ".acl");
+        file.deleteOnExit();
+        HashMap<String, String> attrs = new HashMap<String, String>();
+        attrs.put("description", "written");
+        List<Hashtable<String, String>> entries = new Vector<Hashtable<String, String>>();
+        entries.add(entry("object", "user", "jensen", "v,i"));
+        entries.add(entry("doc", "localgroup", "app_user", "x"));
+
+        XmlFileReaderWriter.writeACL(file.getPath(), attrs, entries);
+        String written = contentOf(file);
+        assertTrue(written.contains("jensen"));
+        assertTrue(written.contains("app_user"));
+
+        long old = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+        assertTrue(file.setLastModified(old));
+        XmlFileReaderWriter.writeACL(file.getPath(), attrs, entries);
+        assertEquals(old, file.lastModified());
+        assertEquals(written, contentOf(file));
+
+        entries.add(entry("object", "user", "risto", "u"));
+        XmlFileReaderWriter.writeACL(file.getPath(), attrs, entries);
+        assertTrue(file.lastModified() != old);
+        assertTrue(contentOf(file).contains("risto"));
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is ACL.
+ *
+ * The Initial Developer of the Original Code is TietoEnator.
+ * The Original Code code was developed for the European
+ * Environment Agency (EEA) under the IDA/EINRC framework contract.
+ *
+ * Copyright (C) 2000-2014 by European Environment Agency.  All
+ * Rights Reserved.
+ */
+package eionet.acl.impl;
+
+import eionet.acl.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test the bit indexes of permissions and the masks made of them.
+ */
+public class PermissionBitsTest {
+
+    private static List<String> names(PermissionBits.Table table, long mask) {
+        List<String> result = new ArrayList<String>();
+        for (Permission p : Collections.list(table.permissions(mask))) {
+            result.add(p.toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void eachPermissionGetsItsOwnBit() {
+        PermissionBits.Table table = new PermissionBits.Table(PermissionBits.MAX_PERMISSIONS);
+        long v = table.register(new PermissionImpl("v"));
+        long i = table.register(new PermissionImpl("i"));
+        long d = table.register(new PermissionImpl("d"));
+
+        assertEquals(1L, v);
+        assertEquals(2L, i);
+        assertEquals(4L, d);
+        assertEquals(v, table.register(new PermissionImpl("v")));
+        assertEquals(i, table.maskOf(new PermissionImpl("i")));
+        assertEquals(0L, table.maskOf(new PermissionImpl("u")));
+    }
+
+    @Test
+    public void masksCombineAsSets() {
+        PermissionBits.Table table = new PermissionBits.Table(PermissionBits.MAX_PERMISSIONS);
+        long v = table.register(new PermissionImpl("v"));
+        long i = table.register(new PermissionImpl("i"));
+        long d = table.register(new PermissionImpl("d"));
+
+        long readers = v;
+        long editors = v | i | d;
+        assertEquals(Arrays.asList("v", "i", "d"), names(table, readers | editors));
+        assertEquals(Arrays.asList("v"), names(table, readers & editors));
+        assertEquals(Arrays.asList("i", "d"), names(table, editors & ~readers));
+        assertEquals(Collections.emptyList(), names(table, 0L));
+        assertTrue((editors & table.maskOf(new PermissionImpl("d"))) != 0);
+        assertEquals(0L, readers & table.maskOf(new PermissionImpl("d")));
+    }
+
+    @Test
+    public void sixtyFourPermissionsFitInAMask() {
+        PermissionBits.Table table = new PermissionBits.Table(PermissionBits.MAX_PERMISSIONS);
+        long all = 0L;
+        for (int n = 0; n < PermissionBits.MAX_PERMISSIONS; n++) {
+            all |= table.register(new PermissionImpl("p" + n));
+        }
+        assertEquals(-1L, all);
+        assertEquals(Long.MIN_VALUE, table.maskOf(new PermissionImpl("p63")));
+        assertEquals(PermissionBits.MAX_PERMISSIONS, names(table, all).size());
+        assertEquals("p63", names(table, Long.MIN_VALUE).get(0));
+        try {
+            table.register(new PermissionImpl("p64"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0L, table.maskOf(new PermissionImpl("p64")));
+    }
+
+    @Test
+    public void smallTableIsFullSooner() {
+        PermissionBits.Table table = new PermissionBits.Table(2);
+        table.register(new PermissionImpl("v"));
+        table.register(new PermissionImpl("i"));
+        assertEquals(1L, table.register(new PermissionImpl("v")));
+        try {
+            table.register(new PermissionImpl("d"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sharedTableAgreesWithEntries() {
+        Permission v = new PermissionImpl("v");
+        long bit = PermissionBits.register(v);
+        assertEquals(1, Long.bitCount(bit));
+        assertEquals(bit, PermissionBits.maskOf(new PermissionImpl("v")));
+        assertEquals(Arrays.asList(v), Collections.list(PermissionBits.permissions(bit)));
+    }
+}